@@ -0,0 +1,212 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lights a grid with colored light in a single pass. The light of every tile is packed in one int, one byte per
+ * channel: the fourth channel in the highest byte, then red, green and blue, so a light grid can be sent as it is to
+ * a renderer as RGB pixels.
+ * Each source spreads once, breadth first, and the levels of all its channels at every distance are computed
+ * beforehand, so a tile takes the value of its distance and is merged with a maximum of each channel computed on the
+ * four bytes at once.
+ * Each tile holds the maximum between the base light and the light of every source reaching it, channel by channel,
+ * so the result doesn't depend on the order of the sources. A source whose channels are all equal gives, in every
+ * channel, the same light as LightMap.
+ * Keeps its queue and marks between calls, so one illuminator should be reused, and used by one thread at a time.
+ */
+public class ColoredIlluminator {
+    private static final int HIGH_BITS = 0x80808080;
+
+    private int[] queue = new int[256];
+    private int[] stamps = new int[0];
+    private int stamp;
+    private int[] levels = new int[256];
+
+    /**
+     * Given a 2D matrix and an ArrayList of light sources, returns a 2D matrix of packed colors representing the light
+     * on every tile of the 2D matrix. Sources that are not ColoredLightSources are white.
+     * @param t 2D matrix, where 0s are walls and 1s are walkable tiles
+     * @param sources list of light sources
+     * @param basecolor packed color of the light with no sources
+     * @return 2D matrix of packed colors
+     */
+    public int[][] illuminate(int[][] t, ArrayList<? extends LightSource> sources, int basecolor){
+        return illuminate(DungeonGrid.fromArray(t), sources, basecolor).toArray();
+    }
+
+    /**
+     * Given a grid of 0s and 1s and a list of light sources, returns a grid of packed colors representing the light
+     * on every tile of the grid. Sources that are not ColoredLightSources are white.
+     * @param g grid, where 0s are walls and 1s are walkable tiles
+     * @param sources list of light sources
+     * @param basecolor packed color of the light with no sources
+     * @return grid of packed colors
+     */
+    public DungeonGrid illuminate(DungeonGrid g, List<? extends LightSource> sources, int basecolor){
+        DungeonGrid light = new DungeonGrid(g.getWidth(), g.getHeight());
+        illuminate(g, sources, basecolor, light);
+        return light;
+    }
+
+    /**
+     * Same as illuminate, into a light grid that is reused between calls
+     * @param g grid, where 0s are walls and 1s are walkable tiles
+     * @param sources list of light sources
+     * @param basecolor packed color of the light with no sources
+     * @param light grid of the same size, overwritten with the packed colors
+     */
+    public void illuminate(DungeonGrid g, List<? extends LightSource> sources, int basecolor, DungeonGrid light){
+        if(light.getWidth() != g.getWidth() || light.getHeight() != g.getHeight()){
+            throw new IllegalArgumentException("Light grid of a different size than the grid");
+        }
+        light.fillAll(basecolor);
+        for (int k = 0; k < sources.size(); k++) {
+            LightSource ls = sources.get(k);
+            if(g.inBounds(ls.getX(), ls.getY())) {
+                int color;
+                if(ls instanceof ColoredLightSource){
+                    color = ((ColoredLightSource) ls).getColor();
+                }else{
+                    int i = clamp(ls.getIntensity());
+                    color = pack(i, i, i, 0);
+                }
+                spread(g.getCells(), light.getCells(), g.getStride(), g.index(ls.getX(), ls.getY()), color);
+            }
+        }
+    }
+
+    /**
+     * Spreads the light of a source on the flat arrays of a grid and its light values, keeping on every tile the
+     * maximum of each channel
+     * @param t cells of the grid
+     * @param tlight cells of the light grid
+     * @param stride stride of both grids
+     * @param idx index of the source
+     * @param color packed color of the source
+     */
+    public void spread(int[] t, int[] tlight, int stride, int idx, int color){
+        if(stamps.length < t.length){
+            stamps = new int[t.length];
+            stamp = 0;
+        }
+        if(++stamp == Integer.MAX_VALUE){
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+        int current = stamp;
+        int[] marks = stamps;
+
+        //Color at every distance, until every channel is dark
+        int reach = Math.max(Math.max(red(color), green(color)), Math.max(blue(color), flicker(color)));
+        int[] level = levels;
+        for (int d = 0; d <= reach; d++) {
+            level[d] = pack(red(color) - d, green(color) - d, blue(color) - d, flicker(color) - d);
+        }
+
+        int[] q = queue;
+        int head = 0, tail = 0;
+        tlight[idx] = max(tlight[idx], color);
+        marks[idx] = current;
+        q[tail++] = idx;
+
+        //Tiles are taken out by distance, one level after the other
+        int d = 0, levelEnd = tail;
+        while(head < tail){
+            if(head == levelEnd){
+                d++;
+                levelEnd = tail;
+            }
+            int p = q[head++];
+            int value = level[d];
+            boolean spreads = d + 1 < reach;
+            int next = spreads ? level[d + 1] : 0;
+            for (int k = 0; k < 4; k++) {
+                int n;
+                switch (k) {
+                    case 0: n = p + 1; break;
+                    case 1: n = p - 1; break;
+                    case 2: n = p + stride; break;
+                    default: n = p - stride; break;
+                }
+                int cell = t[n];
+                if(cell == 1){
+                    if(spreads && marks[n] != current){
+                        marks[n] = current;
+                        tlight[n] = max(tlight[n], next);
+                        if(tail == q.length){
+                            q = Arrays.copyOf(q, q.length * 2);
+                        }
+                        q[tail++] = n;
+                    }
+                }else if(cell == 0){
+                    //Walls take the light of their brightest neighbour
+                    tlight[n] = max(tlight[n], value);
+                }
+            }
+        }
+        queue = q;
+    }
+
+    /**
+     * Copies a light grid into an array of width x height pixels, row after row, as renderers take textures
+     * @param light light grid
+     * @param out array to copy into, or null to allocate one
+     * @return the array of pixels
+     */
+    public static int[] toPixels(DungeonGrid light, int[] out){
+        int width = light.getWidth(), height = light.getHeight();
+        if(out == null){
+            out = new int[width * height];
+        }
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(light.getCells(), light.index(0, y), out, y * width, width);
+        }
+        return out;
+    }
+
+    /**
+     * Maximum of each channel of two packed colors, the four of them at once: the top bit of every byte is compared
+     * apart, so subtracting the other seven bits never borrows from the next byte
+     * @param a packed color
+     * @param b packed color
+     * @return packed color with the brightest level of every channel
+     */
+    public static int max(int a, int b){
+        int low = (a | HIGH_BITS) - (b & ~HIGH_BITS);
+        int ge = ((a & ~b) | (~(a ^ b) & low)) & HIGH_BITS;
+        int mask = (ge >>> 7) * 0xFF;
+        return (a & mask) | (b & ~mask);
+    }
+
+    /**
+     * Packs four channels in one int, each one kept between 0 and 255
+     * @param red red light level
+     * @param green green light level
+     * @param blue blue light level
+     * @param flicker level of the fourth channel
+     * @return packed color
+     */
+    public static int pack(int red, int green, int blue, int flicker){
+        return clamp(flicker) << 24 | clamp(red) << 16 | clamp(green) << 8 | clamp(blue);
+    }
+
+    public static int red(int color){
+        return (color >>> 16) & 0xFF;
+    }
+
+    public static int green(int color){
+        return (color >>> 8) & 0xFF;
+    }
+
+    public static int blue(int color){
+        return color & 0xFF;
+    }
+
+    public static int flicker(int color){
+        return color >>> 24;
+    }
+
+    private static int clamp(int level){
+        return level < 0 ? 0 : level > 255 ? 255 : level;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Light source with a color: a light level for red, green and blue, and a fourth channel free for the renderer,
+ * like the strength of a flicker. Every channel goes from 0 to 255 and falls off one level per tile, as intensity does.
+ * Its intensity is the level of its brightest channel, so it can be used anywhere a LightSource is.
+ */
+public class ColoredLightSource extends LightSource {
+    private int color;
+    //Color as last set, that setIntensity scales, so the hue is kept even through an intensity of 0
+    private int baseColor;
+
+    /**
+     * @param x x position
+     * @param y y position
+     * @param red red light level
+     * @param green green light level
+     * @param blue blue light level
+     */
+    public ColoredLightSource(int x, int y, int red, int green, int blue) {
+        this(x, y, red, green, blue, 0);
+    }
+
+    /**
+     * @param x x position
+     * @param y y position
+     * @param red red light level
+     * @param green green light level
+     * @param blue blue light level
+     * @param flicker level of the fourth channel
+     */
+    public ColoredLightSource(int x, int y, int red, int green, int blue, int flicker) {
+        super(x, y, 0);
+        setColor(ColoredIlluminator.pack(red, green, blue, flicker));
+    }
+
+    /**
+     * @return channels packed in one int, as ColoredIlluminator.pack does
+     */
+    public int getColor() {
+        return color;
+    }
+
+    /**
+     * Sets every channel at once, also changing the intensity to the level of the brightest one
+     * @param color channels packed in one int, as ColoredIlluminator.pack does
+     */
+    public void setColor(int color) {
+        this.baseColor = color;
+        scaled(color);
+    }
+
+    /**
+     * Scales every channel of the color last given to setColor or to the constructor to a new intensity, keeping its
+     * hue. A source whose color was black becomes white.
+     * @param intensity light level of the brightest channel
+     */
+    @Override
+    public void setIntensity(int intensity) {
+        int base = brightest(baseColor);
+        if(base == 0){
+            scaled(ColoredIlluminator.pack(intensity, intensity, intensity, 0));
+            return;
+        }
+        scaled(ColoredIlluminator.pack(ColoredIlluminator.red(baseColor) * intensity / base,
+                ColoredIlluminator.green(baseColor) * intensity / base,
+                ColoredIlluminator.blue(baseColor) * intensity / base,
+                ColoredIlluminator.flicker(baseColor) * intensity / base));
+    }
+
+    /**
+     * Sets the channels lit, keeping the color they were scaled from
+     * @param color channels packed in one int
+     */
+    private void scaled(int color) {
+        this.color = color;
+        this.intensity = brightest(color);
+        changed();
+    }
+
+    private static int brightest(int color){
+        return Math.max(Math.max(ColoredIlluminator.red(color), ColoredIlluminator.green(color)),
+                Math.max(ColoredIlluminator.blue(color), ColoredIlluminator.flicker(color)));
+    }
+}
@@ -0,0 +1,330 @@
+import java.util.Arrays;
+
+/**
+ * Distance from every walkable tile of a grid to its nearest target, moving in four directions, and the direction of
+ * the first step towards it. Agents chasing the targets just read their next step, in constant time, instead of
+ * searching a path each.
+ * Every tile also knows which target is nearest to it. The tiles of a target are connected, so when a target moves or
+ * is removed only its tiles are cleared and filled again from the tiles around them and from its new position.
+ * Distances are always exact. Between targets at the same distance from a tile, the one it steps towards may differ
+ * from the one a full rebuild would choose.
+ * Walkable tiles are the ones with a value greater than 0. Needs rebuild after the grid changes.
+ * Not safe to change from several threads at the same time, reading it from several threads between changes is fine.
+ */
+public class DistanceField {
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    //Directions of the first step towards the nearest target, NONE on targets and unreachable tiles
+    public static final int NONE = 0, RIGHT = 1, LEFT = 2, DOWN = 3, UP = 4;
+    public static final int[] DX = {0, 1, -1, 0, 0};
+    public static final int[] DY = {0, 0, 0, 1, -1};
+    private static final byte[] OPPOSITE = {NONE, LEFT, RIGHT, UP, DOWN};
+
+    private static final int FREE = -1, CLEARED = -2;
+
+    private final DungeonGrid grid;
+    private final int stride;
+    private final int[] steps;
+    private final int[] dist, owner;
+    private final byte[] flow;
+    private final int[] queue, cleared;
+    private long[] seeds = new long[64];
+    private int[] targets = new int[8];
+    private int slots, targetCount;
+
+    /**
+     * Creates a field with no targets, where every tile is unreachable
+     * @param grid grid, where 0s are walls
+     */
+    public DistanceField(DungeonGrid grid) {
+        this.grid = grid;
+        this.stride = grid.getStride();
+        this.steps = new int[]{0, 1, -1, stride, -stride};
+        int cells = grid.getCells().length;
+        dist = new int[cells];
+        owner = new int[cells];
+        flow = new byte[cells];
+        queue = new int[cells];
+        cleared = new int[cells];
+        Arrays.fill(dist, UNREACHABLE);
+        Arrays.fill(owner, FREE);
+    }
+
+    /**
+     * Creates a field with several targets, computed at once breadth first from all of them
+     * @param grid grid, where 0s are walls
+     * @param xs x positions of the targets
+     * @param ys y positions of the targets, as many as x positions
+     */
+    public DistanceField(DungeonGrid grid, int[] xs, int[] ys) {
+        this(grid);
+        if(xs.length != ys.length){
+            throw new IllegalArgumentException("Different number of x and y positions");
+        }
+        targets = new int[Math.max(xs.length, 8)];
+        for (int k = 0; k < xs.length; k++) {
+            targets[k] = grid.index(xs[k], ys[k]);
+        }
+        slots = targetCount = xs.length;
+        rebuild();
+    }
+
+    /**
+     * Adds a target, lowering the distance of the tiles nearer to it than to the other targets
+     * @param x x position
+     * @param y y position
+     * @return id of the target, kept until it is removed
+     */
+    public int addTarget(int x, int y){
+        int id = 0;
+        while(id < slots && targets[id] != FREE){
+            id++;
+        }
+        if(id == targets.length){
+            targets = Arrays.copyOf(targets, targets.length * 2);
+        }
+        if(id == slots){
+            slots++;
+        }
+        targets[id] = grid.index(x, y);
+        targetCount++;
+        int n = seedTarget(id, 0);
+        propagate(n);
+        return id;
+    }
+
+    /**
+     * Moves a target, filling again the tiles it was nearest to
+     * @param id id of the target
+     * @param x new x position
+     * @param y new y position
+     */
+    public void moveTarget(int id, int x, int y){
+        checkTarget(id);
+        int idx = grid.index(x, y);
+        if(targets[id] == idx){
+            return;
+        }
+        int n = clear(id);
+        targets[id] = idx;
+        n = seedTarget(id, n);
+        propagate(n);
+    }
+
+    /**
+     * Removes a target, filling again the tiles it was nearest to from the other targets
+     * @param id id of the target
+     */
+    public void removeTarget(int id){
+        checkTarget(id);
+        int n = clear(id);
+        targets[id] = FREE;
+        targetCount--;
+        propagate(n);
+    }
+
+    /**
+     * Computes the whole field again from its targets, needed after walls of the grid change
+     */
+    public void rebuild(){
+        Arrays.fill(dist, UNREACHABLE);
+        Arrays.fill(owner, FREE);
+        Arrays.fill(flow, (byte) NONE);
+        int n = 0;
+        for (int id = 0; id < slots; id++) {
+            if(targets[id] != FREE){
+                n = seedTarget(id, n);
+            }
+        }
+        propagate(n);
+    }
+
+    /**
+     * @param x x position
+     * @param y y position
+     * @return steps to the nearest target, or UNREACHABLE
+     */
+    public int getDistance(int x, int y){
+        return dist[grid.index(x, y)];
+    }
+
+    /**
+     * @param x x position
+     * @param y y position
+     * @return direction of the first step towards the nearest target, to use with DX and DY
+     */
+    public int getDirection(int x, int y){
+        return flow[grid.index(x, y)];
+    }
+
+    /**
+     * @param x x position
+     * @param y y position
+     * @return id of the nearest target, or -1 if no target can be reached
+     */
+    public int getNearestTarget(int x, int y){
+        return owner[grid.index(x, y)];
+    }
+
+    /**
+     * @param index index of a tile, as given by DungeonGrid.index
+     * @return steps to the nearest target, or UNREACHABLE
+     */
+    public int getDistanceIndex(int index){
+        return dist[index];
+    }
+
+    /**
+     * @param index index of a tile, as given by DungeonGrid.index
+     * @return direction of the first step towards the nearest target, to use with DX and DY
+     */
+    public int getDirectionIndex(int index){
+        return flow[index];
+    }
+
+    /**
+     * Copies the distances into a new 2D matrix, UNREACHABLE on walls and tiles no target can reach
+     * @return 2D matrix, indexed [x][y]
+     */
+    public int[][] toArray(){
+        int[][] t = new int[grid.getWidth()][grid.getHeight()];
+        for (int i = 0; i < grid.getWidth(); i++) {
+            for (int j = 0; j < grid.getHeight(); j++) {
+                t[i][j] = dist[grid.index(i, j)];
+            }
+        }
+        return t;
+    }
+
+    public int getTargetX(int id){
+        checkTarget(id);
+        return targets[id] % stride - 1;
+    }
+
+    public int getTargetY(int id){
+        checkTarget(id);
+        return targets[id] / stride - 1;
+    }
+
+    /**
+     * @return number of targets
+     */
+    public int getTargetCount() {
+        return targetCount;
+    }
+
+    public DungeonGrid getGrid() {
+        return grid;
+    }
+
+    private void checkTarget(int id){
+        if(id < 0 || id >= slots || targets[id] == FREE){
+            throw new IllegalArgumentException("No target with id " + id);
+        }
+    }
+
+    /**
+     * Makes the tile of a target a seed, at distance 0, if it is walkable and not the tile of another target already
+     * @param id id of the target
+     * @param n number of seeds
+     * @return new number of seeds
+     */
+    private int seedTarget(int id, int n){
+        int idx = targets[id];
+        if(grid.getCells()[idx] <= 0 || dist[idx] == 0){
+            return n;
+        }
+        dist[idx] = 0;
+        owner[idx] = id;
+        flow[idx] = NONE;
+        return addSeed(n, idx);
+    }
+
+    private int addSeed(int n, int idx){
+        if(n == seeds.length){
+            seeds = Arrays.copyOf(seeds, seeds.length * 2);
+        }
+        seeds[n] = (long) dist[idx] << 32 | idx;
+        return n + 1;
+    }
+
+    /**
+     * Clears the tiles whose nearest target is the given one, and makes seeds of the tiles around them that keep their
+     * distance and of the other targets among them
+     * @param id id of the target
+     * @return number of seeds
+     */
+    private int clear(int id){
+        int start = targets[id];
+        if(owner[start] != id){
+            return 0;
+        }
+        int[] t = grid.getCells();
+        int count = 0;
+        owner[start] = CLEARED;
+        cleared[count++] = start;
+        for (int k = 0; k < count; k++) {
+            int p = cleared[k];
+            dist[p] = UNREACHABLE;
+            flow[p] = NONE;
+            for (int d = RIGHT; d <= UP; d++) {
+                int n = p + steps[d];
+                if(owner[n] == id){
+                    owner[n] = CLEARED;
+                    cleared[count++] = n;
+                }
+            }
+        }
+
+        int seedCount = 0;
+        for (int k = 0; k < count; k++) {
+            int p = cleared[k];
+            for (int d = RIGHT; d <= UP; d++) {
+                int n = p + steps[d];
+                if(owner[n] >= 0 && t[n] > 0){
+                    seedCount = addSeed(seedCount, n);
+                }
+            }
+        }
+        for (int k = 0; k < count; k++) {
+            owner[cleared[k]] = FREE;
+        }
+        for (int other = 0; other < slots; other++) {
+            if(other != id && targets[other] != FREE && owner[targets[other]] == FREE){
+                seedCount = seedTarget(other, seedCount);
+            }
+        }
+        return seedCount;
+    }
+
+    /**
+     * Lowers the distance of the tiles that can be reached in fewer steps from the seeds, breadth first.
+     * Seeds can be at different distances, so they are sorted and taken out together with the queue, always the one
+     * with the lowest distance first: every tile is then set once, to its final distance.
+     * @param n number of seeds
+     */
+    private void propagate(int n){
+        Arrays.sort(seeds, 0, n);
+        int[] t = grid.getCells();
+        int[] q = queue;
+        int head = 0, tail = 0, s = 0;
+        while(s < n || head < tail){
+            int p;
+            if(head < tail && (s == n || dist[q[head]] <= (int) (seeds[s] >>> 32))){
+                p = q[head++];
+            }else{
+                p = (int) seeds[s++];
+            }
+            int next = dist[p] + 1, o = owner[p];
+            for (int d = RIGHT; d <= UP; d++) {
+                int nb = p + steps[d];
+                if(t[nb] > 0 && dist[nb] > next){
+                    dist[nb] = next;
+                    owner[nb] = o;
+                    flow[nb] = OPPOSITE[d];
+                    q[tail++] = nb;
+                }
+            }
+        }
+    }
+}
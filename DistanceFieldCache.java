@@ -0,0 +1,117 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the distance fields of the sets of targets asked for most recently, so agents chasing the same targets share
+ * one field. Fields are kept for one version of one grid: when the grid changes every field is dropped.
+ * The fields returned are shared and must not be changed: fields whose targets move should be made apart with
+ * new DistanceField and changed with moveTarget.
+ * Not safe to use from several threads at the same time.
+ */
+public class DistanceFieldCache {
+    private final int capacity;
+    private final LinkedHashMap<Key, DistanceField> fields;
+    private DungeonGrid grid;
+    private int version;
+    private long hits, misses;
+
+    /**
+     * Tiles of a set of targets, sorted so the order they are given in doesn't matter
+     */
+    private static final class Key {
+        final int[] tiles;
+        final int hash;
+
+        Key(int[] tiles) {
+            this.tiles = tiles;
+            this.hash = Arrays.hashCode(tiles);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(tiles, ((Key) o).tiles);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * @param capacity maximum number of fields kept, each taking 17 bytes per tile of the grid: distances, owners and the
+     * two work arrays as ints, and the flow as bytes
+     */
+    public DistanceFieldCache(final int capacity) {
+        this.capacity = capacity;
+        this.fields = new LinkedHashMap<Key, DistanceField>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, DistanceField> eldest) {
+                return size() > DistanceFieldCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the field of a set of targets, computing it only if it is not kept already
+     * @param g grid, where 0s are walls
+     * @param xs x positions of the targets
+     * @param ys y positions of the targets, as many as x positions
+     * @return distance field of the targets, must not be changed
+     */
+    public DistanceField get(DungeonGrid g, int[] xs, int[] ys){
+        if(g != grid || g.getVersion() != version){
+            clear();
+            grid = g;
+            version = g.getVersion();
+        }
+        int[] tiles = new int[xs.length];
+        for (int k = 0; k < xs.length; k++) {
+            tiles[k] = g.index(xs[k], ys[k]);
+        }
+        Arrays.sort(tiles);
+        Key key = new Key(tiles);
+        DistanceField field = fields.get(key);
+        if(field != null){
+            hits++;
+            return field;
+        }
+        misses++;
+        field = new DistanceField(g, xs, ys);
+        fields.put(key, field);
+        return field;
+    }
+
+    /**
+     * Drops every field kept
+     */
+    public void clear(){
+        fields.clear();
+    }
+
+    /**
+     * @return number of fields kept
+     */
+    public int getCount() {
+        return fields.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of fields found in the cache
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of fields that had to be computed
+     */
+    public long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,541 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Binary file holding a dungeon and, optionally, its light values. Files are memory mapped, so opening one only reads
+ * its header: tiles and rows are read from the mapping when asked for, without parsing the rest of the file.
+ *
+ * Layout, little endian:
+ * a header of 64 bytes (magic "JDGN", version, flags, width, height, and offset and length of each section),
+ * the walkable section, and the light section if there is one.
+ * Uncompressed, the walkable section holds the bits of a WalkableMask as they are in memory, so a whole mask is loaded
+ * with a single copy, and the light section holds width x height ints, row after row.
+ * Compressed, each section starts with a table of height + 1 offsets to the start of every row, followed by the rows
+ * encoded as runs of variable length integers: pairs of length and value for light rows, and for walkable rows a tag
+ * byte followed either by alternating lengths of walls and walkable tiles, starting with walls, or by the bits of the
+ * row, whichever is smaller. Corridors one tile wide make rows of very short runs, which take less space as bits.
+ *
+ * Reading from a DungeonFile doesn't change it, so it can be read from several threads at once.
+ */
+public class DungeonFile {
+    public static final int VERSION = 1;
+    private static final int MAGIC = 'J' | 'D' << 8 | 'G' << 16 | 'N' << 24;
+    private static final int HEADER = 64;
+    private static final int COMPRESSED = 1, LIGHT = 2;
+    private static final int RUNS = 0, BITS = 1;
+
+    private final ByteBuffer buffer;
+    private final int version, width, height, stride;
+    private final boolean compressed, light;
+    private final int walkOffset, lightOffset;
+
+    private DungeonFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC){
+            throw new IOException("Not a dungeon file");
+        }
+        version = buffer.getShort(4);
+        if(version < 1 || version > VERSION){
+            throw new IOException("Unsupported dungeon file version " + version);
+        }
+        int flags = buffer.getShort(6);
+        compressed = (flags & COMPRESSED) != 0;
+        light = (flags & LIGHT) != 0;
+        width = buffer.getInt(8);
+        height = buffer.getInt(12);
+        stride = width + 2;
+        walkOffset = (int) buffer.getLong(16);
+        lightOffset = (int) buffer.getLong(32);
+        if(width <= 0 || height <= 0 || walkOffset + buffer.getLong(24) > buffer.capacity()
+                || light && lightOffset + buffer.getLong(40) > buffer.capacity()){
+            throw new IOException("Truncated dungeon file");
+        }
+    }
+
+    /**
+     * Opens a file for reading, mapping it into memory. Only the header is read.
+     * @param path path of the file
+     * @return the opened file, which stays valid after the channel used to map it is closed
+     * @throws IOException if the file can't be read or is not a dungeon file
+     */
+    public static DungeonFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE){
+                throw new IOException("Dungeon file bigger than 2GB");
+            }
+            return new DungeonFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes a dungeon grid, and optionally its light values, to a file
+     * @param path path of the file, replaced if it exists
+     * @param grid grid, where 0s are walls
+     * @param lightGrid light values of the same size, or null to store none
+     * @param compress if rows are stored as runs, much smaller for dungeons but read row by row
+     * @throws IOException if the file can't be written
+     */
+    public static void write(Path path, DungeonGrid grid, DungeonGrid lightGrid, boolean compress) throws IOException {
+        write(path, grid.toMask(), lightGrid, compress);
+    }
+
+    /**
+     * Writes a walkable mask, and optionally its light values, to a file
+     * @param path path of the file, replaced if it exists
+     * @param mask walkable mask
+     * @param lightGrid light values of the same size, or null to store none
+     * @param compress if rows are stored as runs, much smaller for dungeons but read row by row
+     * @throws IOException if the file can't be written
+     */
+    public static void write(Path path, WalkableMask mask, DungeonGrid lightGrid, boolean compress) throws IOException {
+        int width = mask.getWidth(), height = mask.getHeight();
+        if(lightGrid != null && (lightGrid.getWidth() != width || lightGrid.getHeight() != height)){
+            throw new IllegalArgumentException("Light values of a different size than the dungeon");
+        }
+
+        //Compressed sections are encoded first, the size of the file is needed to map it
+        ByteWriter walk = compress ? encodeWalk(mask) : null;
+        ByteWriter lights = compress && lightGrid != null ? encodeLight(lightGrid) : null;
+        long walkLength = compress ? walk.size() : 8L * mask.getBits().length;
+        long lightLength = lightGrid == null ? 0 : compress ? lights.size() : 4L * width * height;
+        long size = HEADER + walkLength + lightLength;
+        if(size > Integer.MAX_VALUE){
+            throw new IOException("Dungeon file bigger than 2GB");
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(0, MAGIC);
+            buffer.putShort(4, (short) VERSION);
+            buffer.putShort(6, (short) ((compress ? COMPRESSED : 0) | (lightGrid != null ? LIGHT : 0)));
+            buffer.putInt(8, width);
+            buffer.putInt(12, height);
+            buffer.putLong(16, HEADER);
+            buffer.putLong(24, walkLength);
+            buffer.putLong(32, lightGrid == null ? 0 : HEADER + walkLength);
+            buffer.putLong(40, lightLength);
+
+            buffer.position(HEADER);
+            if(compress){
+                buffer.put(walk.bytes(), 0, walk.size());
+            }else{
+                buffer.asLongBuffer().put(mask.getBits());
+                buffer.position(HEADER + (int) walkLength);
+            }
+            if(lightGrid != null){
+                if(compress){
+                    buffer.put(lights.bytes(), 0, lights.size());
+                }else{
+                    IntBuffer ints = buffer.asIntBuffer();
+                    for (int y = 0; y < height; y++) {
+                        ints.put(lightGrid.getCells(), lightGrid.index(0, y), width);
+                    }
+                }
+            }
+            buffer.force();
+        }
+    }
+
+    /**
+     * @param x x position
+     * @param y y position
+     * @return if the tile is walkable
+     */
+    public boolean isWalkable(int x, int y){
+        if(!compressed){
+            int idx = (y + 1) * stride + x + 1;
+            return (buffer.getLong(walkOffset + 8 * (idx >>> 6)) & (1L << idx)) != 0;
+        }
+
+        int[] pos = {rowStart(walkOffset, y)};
+        if(buffer.get(pos[0]++) == BITS){
+            return (buffer.get(pos[0] + (x >>> 3)) & (1 << (x & 7))) != 0;
+        }
+
+        //Go through the runs of the row until the one holding the tile
+        boolean walkable = false;
+        int end = 0;
+        while(true){
+            end += readVarint(pos);
+            if(x < end){
+                return walkable;
+            }
+            walkable = !walkable;
+        }
+    }
+
+    /**
+     * Reads a band of rows into a mask of its own
+     * @param y0 first row
+     * @param rows number of rows
+     * @return mask as wide as the dungeon and rows tall, its row 0 being row y0 of the dungeon
+     */
+    public WalkableMask readRows(int y0, int rows){
+        if(y0 < 0 || rows < 0 || y0 + rows > height){
+            throw new IndexOutOfBoundsException("Rows " + y0 + " to " + (y0 + rows) + " out of " + height);
+        }
+        WalkableMask mask = new WalkableMask(width, rows);
+        long[] bits = mask.getBits();
+        if(!compressed){
+            //Same width, so the rows are a single range of bits in both masks, padding included
+            long from = (long) (y0 + 1) * stride, to = (long) (y0 + rows + 1) * stride;
+            long dst = stride;
+            for (long src = from; src < to; src += 64, dst += 64) {
+                long word = readBits(src);
+                if(to - src < 64){
+                    word &= (1L << (to - src)) - 1;
+                }
+                int d = (int) (dst >>> 6), shift = (int) (dst & 63);
+                bits[d] |= word << shift;
+                if(shift != 0 && d + 1 < bits.length){
+                    bits[d + 1] |= word >>> (64 - shift);
+                }
+            }
+            return mask;
+        }
+        for (int r = 0; r < rows; r++) {
+            int[] pos = {rowStart(walkOffset, y0 + r)};
+            int base = (r + 1) * stride + 1;
+            if(buffer.get(pos[0]++) == BITS){
+                //Eight tiles at once, the byte may fall across two words
+                for (int x = 0; x < width; x += 8) {
+                    long b = buffer.get(pos[0] + (x >>> 3)) & 0xFF;
+                    int idx = base + x, shift = idx & 63;
+                    bits[idx >>> 6] |= b << shift;
+                    if(shift > 56){
+                        bits[(idx >>> 6) + 1] |= b >>> (64 - shift);
+                    }
+                }
+                continue;
+            }
+            int x = 0;
+            boolean walkable = false;
+            while(x < width){
+                int end = Math.min(x + readVarint(pos), width);
+                if(walkable){
+                    setRange(bits, base + x, base + end);
+                }
+                x = end;
+                walkable = !walkable;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Reads the whole dungeon. Uncompressed files are copied in a single block.
+     * @return walkable mask
+     */
+    public WalkableMask toMask(){
+        if(compressed){
+            return readRows(0, height);
+        }
+        WalkableMask mask = new WalkableMask(width, height);
+        LongBuffer longs = ((ByteBuffer) buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(walkOffset)).asLongBuffer();
+        longs.get(mask.getBits());
+        return mask;
+    }
+
+    /**
+     * @param x x position
+     * @param y y position
+     * @return light value of the tile
+     */
+    public int getLight(int x, int y){
+        checkLight();
+        if(!compressed){
+            return buffer.getInt(lightOffset + 4 * (y * width + x));
+        }
+        int[] pos = {rowStart(lightOffset, y)};
+        int end = 0;
+        while(true){
+            end += readVarint(pos);
+            int value = readZigzag(pos);
+            if(x < end){
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Reads the light values of a row
+     * @param y row
+     * @param out array of at least width values to read into, or null to allocate one
+     * @return the array with the values
+     */
+    public int[] readLightRow(int y, int[] out){
+        checkLight();
+        if(y < 0 || y >= height){
+            throw new IndexOutOfBoundsException("Row " + y + " out of " + height);
+        }
+        if(out == null){
+            out = new int[width];
+        }
+        if(!compressed){
+            IntBuffer ints = ((ByteBuffer) buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(lightOffset + 4 * y * width)).asIntBuffer();
+            ints.get(out, 0, width);
+            return out;
+        }
+        int[] pos = {rowStart(lightOffset, y)};
+        int x = 0;
+        while(x < width){
+            int end = Math.min(x + readVarint(pos), width);
+            Arrays.fill(out, x, end, readZigzag(pos));
+            x = end;
+        }
+        return out;
+    }
+
+    /**
+     * Reads every light value
+     * @return light values grid
+     */
+    public DungeonGrid toLightGrid(){
+        checkLight();
+        DungeonGrid g = new DungeonGrid(width, height);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(readLightRow(y, row), 0, g.getCells(), g.index(0, y), width);
+        }
+        return g;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return if rows are stored as runs
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * @return if the file has light values
+     */
+    public boolean hasLight() {
+        return light;
+    }
+
+    private void checkLight(){
+        if(!light){
+            throw new IllegalStateException("Dungeon file without light values");
+        }
+    }
+
+    /**
+     * @param section offset of a compressed section
+     * @param y row
+     * @return position in the file of the first run of the row
+     */
+    private int rowStart(int section, int y){
+        return section + 4 * (height + 1) + buffer.getInt(section + 4 * y);
+    }
+
+    /**
+     * Sets a range of bits
+     * @param bits array of bits
+     * @param from first bit
+     * @param to bit after the last one
+     */
+    private static void setRange(long[] bits, int from, int to){
+        if(from >= to){
+            return;
+        }
+        int first = from >>> 6, last = (to - 1) >>> 6;
+        long firstMask = -1L << from, lastMask = -1L >>> -to;
+        if(first == last){
+            bits[first] |= firstMask & lastMask;
+            return;
+        }
+        bits[first] |= firstMask;
+        for (int w = first + 1; w < last; w++) {
+            bits[w] = -1L;
+        }
+        bits[last] |= lastMask;
+    }
+
+    /**
+     * @param bit index of the first bit, in the walkable section
+     * @return 64 bits from there, fewer at the end of the section
+     */
+    private long readBits(long bit){
+        int word = (int) (bit >>> 6), shift = (int) (bit & 63);
+        int words = (int) ((8L * buffer.getLong(24)) >>> 6);
+        long low = buffer.getLong(walkOffset + 8 * word) >>> shift;
+        if(shift != 0 && word + 1 < words){
+            low |= buffer.getLong(walkOffset + 8 * (word + 1)) << (64 - shift);
+        }
+        return low;
+    }
+
+    /**
+     * Reads a variable length integer, 7 bits per byte
+     * @param pos position to read from, moved past the integer
+     * @return the integer
+     */
+    private int readVarint(int[] pos){
+        int value = 0, shift = 0;
+        byte b;
+        do {
+            b = buffer.get(pos[0]++);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while(b < 0);
+        return value;
+    }
+
+    private int readZigzag(int[] pos){
+        int v = readVarint(pos);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Encodes the rows of a mask as runs of walls and walkable tiles
+     * @param mask mask
+     * @return offset table followed by the rows
+     */
+    private static ByteWriter encodeWalk(WalkableMask mask){
+        int width = mask.getWidth(), height = mask.getHeight();
+        ByteWriter table = new ByteWriter(4 * (height + 1)), rows = new ByteWriter(16 * height);
+        ByteWriter runs = new ByteWriter(width + 8);
+        int rowBytes = (width + 7) >>> 3;
+        for (int y = 0; y < height; y++) {
+            table.writeInt(rows.size());
+            runs.clear();
+            boolean walkable = false;
+            int run = 0;
+            for (int x = 0; x < width && runs.size() < rowBytes; x++) {
+                if(mask.isWalkable(x, y) != walkable){
+                    runs.writeVarint(run);
+                    walkable = !walkable;
+                    run = 0;
+                }
+                run++;
+            }
+            runs.writeVarint(run);
+
+            if(runs.size() <= rowBytes){
+                rows.writeByte(RUNS);
+                rows.write(runs);
+            }else{
+                rows.writeByte(BITS);
+                long[] bits = mask.getBits();
+                int base = mask.index(0, y);
+                for (int x = 0; x < width; x += 8) {
+                    int idx = base + x, shift = idx & 63;
+                    long b = bits[idx >>> 6] >>> shift;
+                    if(shift > 56){
+                        b |= bits[(idx >>> 6) + 1] << (64 - shift);
+                    }
+                    //Tiles past the end of the row are left out
+                    rows.writeByte((int) b & (0xFF >>> Math.max(0, x + 8 - width)));
+                }
+            }
+        }
+        table.writeInt(rows.size());
+        table.write(rows);
+        return table;
+    }
+
+    /**
+     * Encodes the rows of light values as runs of the same value
+     * @param lightGrid light values
+     * @return offset table followed by the rows
+     */
+    private static ByteWriter encodeLight(DungeonGrid lightGrid){
+        int width = lightGrid.getWidth(), height = lightGrid.getHeight();
+        int[] t = lightGrid.getCells();
+        ByteWriter table = new ByteWriter(4 * (height + 1)), rows = new ByteWriter(16 * height);
+        for (int y = 0; y < height; y++) {
+            table.writeInt(rows.size());
+            int idx = lightGrid.index(0, y);
+            int x = 0;
+            while(x < width){
+                int value = t[idx + x], run = 1;
+                while(x + run < width && t[idx + x + run] == value){
+                    run++;
+                }
+                rows.writeVarint(run);
+                rows.writeVarint((value << 1) ^ (value >> 31));
+                x += run;
+            }
+        }
+        table.writeInt(rows.size());
+        table.write(rows);
+        return table;
+    }
+
+    /**
+     * Growable array of bytes, little endian
+     */
+    private static class ByteWriter {
+        private byte[] bytes;
+        private int size;
+
+        ByteWriter(int capacity) {
+            bytes = new byte[Math.max(capacity, 16)];
+        }
+
+        void writeByte(int b){
+            if(size == bytes.length){
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[size++] = (byte) b;
+        }
+
+        void writeInt(int v){
+            writeByte(v);
+            writeByte(v >>> 8);
+            writeByte(v >>> 16);
+            writeByte(v >>> 24);
+        }
+
+        void writeVarint(int v){
+            while((v & ~0x7F) != 0){
+                writeByte((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            writeByte(v);
+        }
+
+        void write(ByteWriter other){
+            if(size + other.size > bytes.length){
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + other.size));
+            }
+            System.arraycopy(other.bytes, 0, bytes, size, other.size);
+            size += other.size;
+        }
+
+        void clear(){
+            size = 0;
+        }
+
+        byte[] bytes() {
+            return bytes;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+import java.util.SplittableRandom;
+
+/**
+ * Generation of a dungeon that can be done a part at a time, for game loops that can't stop for a whole generation.
+ * Every call to step runs the phases of DungeonGenerator for about the time it is given, and the next call goes on
+ * where it stopped, so a dungeon can be generated over many frames.
+ * The phases are the same ones generateGrid runs, on the same grid and drawing from the same random generator in
+ * the same order, so a task gives the same dungeon as generateGrid with the same seed and configuration.
+ * Every phase goes on from a cursor a few thousand tiles at a time, looking at the clock in between, so a step takes
+ * about its budget however big the grid is.
+ * The working buffers are taken from a shared pool at the first step and given back at the last one. A task that may
+ * be dropped before it is done must be closed, with cancel or close, or its buffers are never given back: it is meant
+ * to be used in a try-with-resources block, or closed by whoever drops it.
+ */
+public class DungeonGenerationTask implements AutoCloseable {
+    private static final GenerationPhase[] PHASES = GenerationPhase.values();
+
+    //Share of the time of a whole generation taken by every phase, to give its progress
+    private static final double[] WEIGHTS = {0.02, 0.45, 0.15, 0.15, 0.08, 0.05, 0.10};
+
+    //Tiles looked at between two looks at the clock
+    private static final long SLICE = 4096;
+
+    private final SplittableRandom rng;
+    private final DungeonParameters p;
+    private final GenerationListener listener;
+    private final GenerationMetrics metrics;
+    private final DungeonGrid g;
+    private GenerationBuffers b;
+    private DungeonGenerator.RoomCursor rooms = new DungeonGenerator.RoomCursor();
+    private DungeonGenerator.MazeCursor maze;
+    private ScanlineFill.LabelCursor labels = new ScanlineFill.LabelCursor();
+    private RegionConnector.Cursor connector = new RegionConnector.Cursor();
+    //Next tile to set to 1 once the regions are connected
+    private int flattened;
+    private DungeonGenerator.BoardCursor board;
+    private int phase;
+    private long phaseNanos;
+    private boolean cancelled;
+
+    /**
+     * @param seed seed of the random generator
+     * @param p configuration of the dungeon
+     */
+    public DungeonGenerationTask(long seed, DungeonParameters p) {
+        this(new SplittableRandom(seed), p, null);
+    }
+
+    /**
+     * @param rng random generator, only used by this task until it is done
+     * @param p configuration of the dungeon
+     */
+    public DungeonGenerationTask(SplittableRandom rng, DungeonParameters p) {
+        this(rng, p, null);
+    }
+
+    /**
+     * Same as the other constructors, reporting the time and counters of every phase to a listener as it finishes.
+     * The time of a phase is the time spent on it over all the steps.
+     * @param rng random generator, only used by this task until it is done
+     * @param p configuration of the dungeon
+     * @param listener listener receiving the metrics, or null to measure nothing
+     */
+    public DungeonGenerationTask(SplittableRandom rng, DungeonParameters p, GenerationListener listener) {
+        this.rng = rng;
+        this.p = p;
+        this.listener = listener;
+        this.metrics = listener == null ? null : new GenerationMetrics();
+        this.g = new DungeonGrid(p.getXsize(), p.getYsize());
+    }
+
+    /**
+     * Runs the generation for about a given time, always doing some work
+     * @param nanosBudget time to run for, in nanoseconds
+     * @return progress of the generation, from 0 to 1 once it is done
+     */
+    public double step(long nanosBudget){
+        long start = System.nanoTime();
+        while(!isDone()){
+            advance();
+            if(System.nanoTime() - start >= nanosBudget){
+                break;
+            }
+        }
+        return getProgress();
+    }
+
+    /**
+     * Runs what is left of the generation at once
+     * @return the dungeon
+     */
+    public DungeonGrid finish(){
+        while(!isDone()){
+            advance();
+        }
+        return g;
+    }
+
+    /**
+     * Runs the next part of the current phase
+     */
+    private void advance(){
+        if(cancelled){
+            throw new IllegalStateException("Generation cancelled");
+        }
+        if(b == null){
+            b = GenerationBuffers.acquire();
+        }
+        long start = metrics == null ? 0 : System.nanoTime();
+        boolean finished = true;
+        switch (PHASES[phase]) {
+            case PLACE_ROOMS:
+                finished = DungeonGenerator.placeRooms(g, rng, p.getNumberOfRooms(), p.getMaxRoomSize(), p.getMinRoomSize(), p.getAttemptsPerRoom(), b.rooms, rooms, SLICE);
+                if(finished){
+                    rooms.report(metrics);
+                    maze = new DungeonGenerator.MazeCursor(rooms.num + 1);
+                }
+                break;
+            case CREATE_MAZE:
+                finished = DungeonGenerator.carveMaze(g, rng, maze, b.stack, SLICE);
+                if(finished){
+                    maze.report(metrics);
+                }
+                break;
+            case FLOOD_FILL:
+                finished = ScanlineFill.labelAll(g, labels, b.stack, SLICE);
+                if(finished){
+                    labels.report(metrics);
+                }
+                break;
+            case CONNECT_REGIONS:
+                //Regions are connected first, then the only region left is turned into ones
+                finished = false;
+                if(connector.stage != RegionConnector.Cursor.DONE){
+                    if(RegionConnector.connect(g, rng, b, connector, SLICE)){
+                        connector.report(metrics);
+                    }
+                }else{
+                    flattened = DungeonGenerator.flatten(g, flattened, SLICE);
+                    finished = flattened == g.getCells().length;
+                }
+                break;
+            case TRIM:
+                finished = DungeonGenerator.trim(g, p.getTrim(), b, board(), SLICE);
+                if(finished){
+                    board.report(GenerationPhase.TRIM, metrics);
+                }
+                break;
+            case ERASE_COLUMNS:
+                finished = DungeonGenerator.eraseColumns(g, p.isEraseColumns(), b.board, board(), SLICE);
+                if(finished){
+                    board.report(GenerationPhase.ERASE_COLUMNS, metrics);
+                }
+                break;
+            default:
+                finished = DungeonGenerator.expand(g, p.getExpand(), b.board, board(), SLICE);
+                if(finished){
+                    board.report(GenerationPhase.EXPAND, metrics);
+                }
+                break;
+        }
+        if(metrics != null){
+            phaseNanos += System.nanoTime() - start;
+        }
+        if(finished){
+            if(metrics != null){
+                metrics.add(PHASES[phase], phaseNanos, 0);
+                phaseNanos = 0;
+                listener.phaseFinished(PHASES[phase], metrics);
+            }
+            phase++;
+            board = null;
+            if(isDone()){
+                release();
+            }
+        }
+    }
+
+    /**
+     * @return cursor of the bitboard phase being run, a new one when it starts
+     */
+    private DungeonGenerator.BoardCursor board(){
+        if(board == null){
+            board = new DungeonGenerator.BoardCursor();
+        }
+        return board;
+    }
+
+    /**
+     * Stops the generation, giving its working buffers back. The dungeon is left unfinished, and step can't be called
+     * anymore.
+     */
+    public void cancel(){
+        cancelled = !isDone();
+        release();
+    }
+
+    /**
+     * Same as cancel, so the task can be used in a try-with-resources block. Does nothing if the generation is done,
+     * its result staying available.
+     */
+    @Override
+    public void close(){
+        cancel();
+    }
+
+    private void release(){
+        if(b != null){
+            GenerationBuffers.release(b);
+            b = null;
+        }
+    }
+
+    /**
+     * @return if every phase has been run
+     */
+    public boolean isDone(){
+        return phase == PHASES.length;
+    }
+
+    /**
+     * @return phase to be run next, null once the generation is done
+     */
+    public GenerationPhase getPhase(){
+        return isDone() ? null : PHASES[phase];
+    }
+
+    /**
+     * Progress of the generation, from the share of the time every phase usually takes and, for the maze, the rows of
+     * the grid already gone through
+     * @return from 0 to 1 once the generation is done
+     */
+    public double getProgress(){
+        double done = 0;
+        for (int k = 0; k < phase; k++) {
+            done += WEIGHTS[k];
+        }
+        if(!isDone() && PHASES[phase] == GenerationPhase.CREATE_MAZE && maze != null){
+            done += WEIGHTS[phase] * Math.min((double) maze.j / Math.max(g.getLimitY(), 1), 1);
+        }
+        return isDone() ? 1 : Math.min(done, 1);
+    }
+
+    /**
+     * @return the dungeon, as a grid of 0s and 1s where 0s are walls
+     * @throws IllegalStateException if the generation is not done
+     */
+    public DungeonGrid getResult(){
+        if(!isDone()){
+            throw new IllegalStateException("Generation not done, still in " + getPhase());
+        }
+        return g;
+    }
+
+    /**
+     * @return metrics of the phases finished so far, or null if no listener was given
+     */
+    public GenerationMetrics getMetrics() {
+        return metrics;
+    }
+
+    public DungeonParameters getParameters() {
+        return p;
+    }
+}
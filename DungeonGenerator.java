@@ -1,11 +1,22 @@
-import java.awt.*;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 
 /**
  * Created by Raindrinker on 05/02/2015.
  */
 public class DungeonGenerator {
 
+    private static final int[] DX = {1, -1, 0, 0};
+    private static final int[] DY = {0, 0, 1, -1};
+
+    //Every possible order in which the four directions can be tried
+    private static final int[][] DIRECTION_ORDERS = permutations();
+
     /**
      * Returns a dungeon represented by an array of integers, where 0s are walls
      * @param xsize horizontal size of the dungeon
@@ -19,62 +30,369 @@ public class DungeonGenerator {
      * @return 2D Integer matrix
      */
     public static int[][] generate(int xsize, int ysize, int numberOfRooms, int minRoomSize, int maxRoomSize, int trim, boolean eraseColumns, int expand){
+        return generate(new SplittableRandom(), xsize, ysize, numberOfRooms, minRoomSize, maxRoomSize, trim, eraseColumns, expand);
+    }
+
+    /**
+     * Returns a dungeon represented by an array of integers, where 0s are walls.
+     * The same seed and configuration always give the same dungeon.
+     * @param seed seed of the random generator
+     * @param xsize horizontal size of the dungeon
+     * @param ysize vertical size of the dungeon
+     * @param numberOfRooms numberOfRooms wanted in the dungeon
+     * @param minRoomSize minimum room width and height
+     * @param maxRoomSize maximum room width and height
+     * @param trim number of times we try to erase dead ends
+     * @param eraseColumns if we want lone walls to be erased or not
+     * @param expand number of times we break walls surrounded by 3 or more empty spaces
+     * @return 2D Integer matrix
+     */
+    public static int[][] generate(long seed, int xsize, int ysize, int numberOfRooms, int minRoomSize, int maxRoomSize, int trim, boolean eraseColumns, int expand){
+        return generate(new SplittableRandom(seed), xsize, ysize, numberOfRooms, minRoomSize, maxRoomSize, trim, eraseColumns, expand);
+    }
+
+    /**
+     * Returns a dungeon represented by an array of integers, where 0s are walls, drawing every random decision from the given generator.
+     * The generator is not shared with anything else, so several dungeons can be generated at once from different threads.
+     * @param rng random generator
+     * @param xsize horizontal size of the dungeon
+     * @param ysize vertical size of the dungeon
+     * @param numberOfRooms numberOfRooms wanted in the dungeon
+     * @param minRoomSize minimum room width and height
+     * @param maxRoomSize maximum room width and height
+     * @param trim number of times we try to erase dead ends
+     * @param eraseColumns if we want lone walls to be erased or not
+     * @param expand number of times we break walls surrounded by 3 or more empty spaces
+     * @return 2D Integer matrix
+     */
+    public static int[][] generate(SplittableRandom rng, int xsize, int ysize, int numberOfRooms, int minRoomSize, int maxRoomSize, int trim, boolean eraseColumns, int expand){
+        return generateGrid(rng, xsize, ysize, numberOfRooms, minRoomSize, maxRoomSize, trim, eraseColumns, expand).toArray();
+    }
+
+    /**
+     * Returns a dungeon as a grid of 0s and 1s, where 0s are walls. Use toMask on it to keep it with one bit per tile.
+     * The same seed and configuration always give the same dungeon.
+     * @param seed seed of the random generator
+     * @param p configuration of the dungeon
+     * @return grid
+     */
+    public static DungeonGrid generateGrid(long seed, DungeonParameters p){
+        return generateGrid(new SplittableRandom(seed), p);
+    }
+
+    /**
+     * Returns a dungeon as a grid of 0s and 1s, where 0s are walls, drawing every random decision from the given generator.
+     * @param rng random generator
+     * @param p configuration of the dungeon
+     * @return grid
+     */
+    public static DungeonGrid generateGrid(SplittableRandom rng, DungeonParameters p){
+        return generateGrid(rng, p, null);
+    }
+
+    /**
+     * Same as generateGrid, reporting the time and counters of every phase to a listener
+     * @param seed seed of the random generator
+     * @param p configuration of the dungeon
+     * @param listener listener receiving the metrics, or null to measure nothing
+     * @return grid
+     */
+    public static DungeonGrid generateGrid(long seed, DungeonParameters p, GenerationListener listener){
+        return generateGrid(new SplittableRandom(seed), p, listener);
+    }
+
+    /**
+     * Same as generateGrid, reporting the time and counters of every phase to a listener
+     * @param rng random generator
+     * @param p configuration of the dungeon
+     * @param listener listener receiving the metrics, or null to measure nothing
+     * @return grid
+     */
+    public static DungeonGrid generateGrid(SplittableRandom rng, DungeonParameters p, GenerationListener listener){
 
         //Create the Integer grid
-        int[][] t = new int[xsize][ysize];
+        DungeonGrid g = new DungeonGrid(p.getXsize(), p.getYsize());
+
+        GenerationBuffers b = GenerationBuffers.acquire();
+        try {
+            generate(g, rng, p, b, listener);
+        } finally {
+            GenerationBuffers.release(b);
+        }
+        return g;
+    }
+
+    /**
+     * Same as generateGrid, also keeping the rooms and connectors of the dungeon to build its topology:
+     * areas, corridors, doors and chokepoints. The grid is the same one generateGrid gives.
+     * @param seed seed of the random generator
+     * @param p configuration of the dungeon
+     * @return topology, holding the grid
+     */
+    public static DungeonTopology generateTopology(long seed, DungeonParameters p){
+        return generateTopology(new SplittableRandom(seed), p);
+    }
+
+    /**
+     * Same as generateGrid, also keeping the rooms and connectors of the dungeon to build its topology:
+     * areas, corridors, doors and chokepoints. The grid is the same one generateGrid gives.
+     * @param rng random generator
+     * @param p configuration of the dungeon
+     * @return topology, holding the grid
+     */
+    public static DungeonTopology generateTopology(SplittableRandom rng, DungeonParameters p){
+        DungeonGrid g = new DungeonGrid(p.getXsize(), p.getYsize());
+        GenerationBuffers b = GenerationBuffers.acquire();
+        try {
+            generate(g, rng, p, b, null);
+            return new DungeonTopology(g, b.rooms.rects(), b.rooms.count(), b.opened, b.stack);
+        } finally {
+            GenerationBuffers.release(b);
+        }
+    }
+
+    /**
+     * Returns a dungeon as a grid of 0s and 1s, where 0s are walls. Use toMask on it to keep it with one bit per tile.
+     * The same seed and configuration always give the same dungeon.
+     * @param seed seed of the random generator
+     * @param xsize horizontal size of the dungeon
+     * @param ysize vertical size of the dungeon
+     * @param numberOfRooms numberOfRooms wanted in the dungeon
+     * @param minRoomSize minimum room width and height
+     * @param maxRoomSize maximum room width and height
+     * @param trim number of times we try to erase dead ends
+     * @param eraseColumns if we want lone walls to be erased or not
+     * @param expand number of times we break walls surrounded by 3 or more empty spaces
+     * @return grid
+     */
+    public static DungeonGrid generateGrid(long seed, int xsize, int ysize, int numberOfRooms, int minRoomSize, int maxRoomSize, int trim, boolean eraseColumns, int expand){
+        return generateGrid(new SplittableRandom(seed), xsize, ysize, numberOfRooms, minRoomSize, maxRoomSize, trim, eraseColumns, expand);
+    }
+
+    /**
+     * Returns a dungeon as a grid of 0s and 1s, where 0s are walls, drawing every random decision from the given generator.
+     * @param rng random generator
+     * @param xsize horizontal size of the dungeon
+     * @param ysize vertical size of the dungeon
+     * @param numberOfRooms numberOfRooms wanted in the dungeon
+     * @param minRoomSize minimum room width and height
+     * @param maxRoomSize maximum room width and height
+     * @param trim number of times we try to erase dead ends
+     * @param eraseColumns if we want lone walls to be erased or not
+     * @param expand number of times we break walls surrounded by 3 or more empty spaces
+     * @return grid
+     */
+    public static DungeonGrid generateGrid(SplittableRandom rng, int xsize, int ysize, int numberOfRooms, int minRoomSize, int maxRoomSize, int trim, boolean eraseColumns, int expand){
+        return generateGrid(rng, new DungeonParameters(xsize, ysize, numberOfRooms, minRoomSize, maxRoomSize, trim, eraseColumns, expand), null);
+    }
+
+    /**
+     * Generates many dungeons with the same configuration at once, one task per seed on the common fork-join pool
+     * @param p configuration of the dungeons
+     * @param seeds seed of every dungeon
+     * @return the dungeons, in the same order as the seeds
+     */
+    public static List<WalkableMask> generateBatch(DungeonParameters p, long[] seeds){
+        return generateBatch(p, seeds, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Generates many dungeons with the same configuration at once, one task per seed on the given executor.
+     * Every task has its own random generator, and the working grid and arrays are reused between the tasks that run
+     * on the same thread, so the only memory kept per dungeon is its mask.
+     * @param p configuration of the dungeons
+     * @param seeds seed of every dungeon
+     * @param executor executor running the tasks, for example a ForkJoinPool or a virtual thread per task executor
+     * @return the dungeons, in the same order as the seeds
+     */
+    public static List<WalkableMask> generateBatch(DungeonParameters p, long[] seeds, Executor executor){
+        List<CompletableFuture<WalkableMask>> tasks = submitBatch(p, seeds, executor);
+        List<WalkableMask> result = new ArrayList<WalkableMask>(seeds.length);
+        for (CompletableFuture<WalkableMask> task : tasks) {
+            result.add(task.join());
+        }
+        return result;
+    }
+
+    /**
+     * Same as generateBatch, returning the dungeons as a stream that gives each one as soon as it and the ones before it are ready
+     * @param p configuration of the dungeons
+     * @param seeds seed of every dungeon
+     * @param executor executor running the tasks
+     * @return stream of the dungeons, in the same order as the seeds
+     */
+    public static Stream<WalkableMask> generateBatchStream(DungeonParameters p, long[] seeds, Executor executor){
+        return submitBatch(p, seeds, executor).stream().map(CompletableFuture::join);
+    }
+
+    private static List<CompletableFuture<WalkableMask>> submitBatch(final DungeonParameters p, long[] seeds, Executor executor){
+        List<CompletableFuture<WalkableMask>> tasks = new ArrayList<CompletableFuture<WalkableMask>>(seeds.length);
+        for (final long seed : seeds) {
+            tasks.add(CompletableFuture.supplyAsync(() -> generateMask(seed, p), executor));
+        }
+        return tasks;
+    }
+
+    /**
+     * Generates a dungeon in a reused working grid and packs it into a mask
+     * @param seed seed of the random generator
+     * @param p configuration of the dungeon
+     * @return walkable mask
+     */
+    static WalkableMask generateMask(long seed, DungeonParameters p){
+        GenerationBuffers b = GenerationBuffers.acquire();
+        try {
+            DungeonGrid g = b.grid(p.getXsize(), p.getYsize());
+            generate(g, new SplittableRandom(seed), p, b, null);
+            return g.toMask();
+        } finally {
+            GenerationBuffers.release(b);
+        }
+    }
+
+    /**
+     * Runs every phase of the generation on a grid full of walls
+     * @param g grid
+     * @param rng random generator
+     * @param p configuration of the dungeon, its size being the size of the grid
+     * @param b working buffers
+     * @param listener listener receiving the metrics of every phase, null to measure nothing
+     */
+    static void generate(DungeonGrid g, SplittableRandom rng, DungeonParameters p, GenerationBuffers b, GenerationListener listener){
+
+        //Metrics are only kept, and the clock only read, when someone is listening
+        GenerationMetrics m = listener == null ? null : new GenerationMetrics();
+        long start = m == null ? 0 : System.nanoTime();
 
         //Place rooms
-        int num = placeRooms(t, numberOfRooms, maxRoomSize, minRoomSize);
+        int num = placeRooms(g, rng, p.getNumberOfRooms(), p.getMaxRoomSize(), p.getMinRoomSize(), p.getAttemptsPerRoom(), b.rooms, m);
+        start = phaseFinished(listener, m, GenerationPhase.PLACE_ROOMS, start);
 
         //Create maze
-        createMaze(t, num+1);
+        createMaze(g, rng, num+1, b.stack, m);
+        start = phaseFinished(listener, m, GenerationPhase.CREATE_MAZE, start);
 
         //Flood fill, ensures that connected regions have the same number
-        floodFill(t);
+        floodFill(g, b.stack, m);
+        start = phaseFinished(listener, m, GenerationPhase.FLOOD_FILL, start);
 
         //Connect all regions
-        connectRegions(t);
+        connectRegions(g, rng, b, m);
 
-        //Fill the only region left with ones
-        fill(t, 1, 1, 1);
+        //Turn the only region left into ones
+        flatten(g);
+        start = phaseFinished(listener, m, GenerationPhase.CONNECT_REGIONS, start);
 
         //Trim
-        trim(t, trim);
+        trim(g, p.getTrim(), b, m);
+        start = phaseFinished(listener, m, GenerationPhase.TRIM, start);
 
         //Erase columns
-        eraseColumns(t, eraseColumns);
+        eraseColumns(g, p.isEraseColumns(), b.board, m);
+        start = phaseFinished(listener, m, GenerationPhase.ERASE_COLUMNS, start);
 
         //Expand
-        expand(t, expand);
+        expand(g, p.getExpand(), b.board, m);
+        phaseFinished(listener, m, GenerationPhase.EXPAND, start);
 
+    }
 
-        return t;
+    /**
+     * Adds the time of a phase to the metrics and tells the listener
+     * @param listener listener, null if nothing is measured
+     * @param m metrics, null if nothing is measured
+     * @param phase phase that just finished
+     * @param start time the phase started at
+     * @return time the next phase starts at
+     */
+    private static long phaseFinished(GenerationListener listener, GenerationMetrics m, GenerationPhase phase, long start){
+        if(m == null){
+            return 0;
+        }
+        m.add(phase, System.nanoTime() - start, 0);
+        listener.phaseFinished(phase, m);
+        return System.nanoTime();
     }
 
     /**
-     * Places rooms in a given 2D matrix
-     * @param t 2D matrix
+     * Places rooms in a given grid, full of walls. Rooms are kept in an index, so checking if a new one overlaps
+     * the ones already placed only looks at the rooms around it.
+     * @param g grid
+     * @param rng random generator
      * @param number number of rooms wanted
      * @param maxsize maximum room width and height
      * @param minsize minimum room width and height
+     * @param attempts random positions tried for every room wanted
+     * @param rooms index of the rooms placed, emptied first
+     * @param metrics metrics, can be null
      * @return number of regions created, needed for further use
      */
-    private static int placeRooms(int[][] t, int number, int maxsize, int minsize){
-        int ypos, xpos, roomsizex, roomsizey, sizex = t.length, sizey = t[0].length;
-        int num = 0;
+    static int placeRooms(DungeonGrid g, SplittableRandom rng, int number, int maxsize, int minsize, int attempts, RoomIndex rooms, GenerationMetrics metrics){
+        RoomCursor c = new RoomCursor();
+        placeRooms(g, rng, number, maxsize, minsize, attempts, rooms, c, Long.MAX_VALUE);
+        c.report(metrics);
+        return c.num;
+    }
+
+    /**
+     * Where placeRooms is in a grid, so the rooms can be placed a part at a time with the other placeRooms
+     */
+    static final class RoomCursor {
+        boolean started;
+        //Random positions tried, rooms placed and tiles they cover
+        int attempts, num, tiles;
+
+        /**
+         * Adds the counters of the rooms to the metrics
+         * @param m metrics, can be null
+         */
+        void report(GenerationMetrics m){
+            if(m != null){
+                m.roomsPlaced += num;
+                m.roomAttempts += attempts;
+                m.add(GenerationPhase.PLACE_ROOMS, 0, tiles);
+            }
+        }
+    }
+
+    /**
+     * Places rooms from where a cursor was left, for about a number of tiles. Placing them in many calls, with the
+     * same random generator and index, gives the same rooms as placing them in one.
+     * @param g grid
+     * @param rng random generator
+     * @param number number of rooms wanted
+     * @param maxsize maximum room width and height
+     * @param minsize minimum room width and height
+     * @param attempts random positions tried for every room wanted
+     * @param rooms index of the rooms placed, emptied by the first call
+     * @param c cursor, moved forward, holding the number of regions created once done
+     * @param steps number of positions to try and tiles to fill
+     * @return true once every room is placed
+     */
+    static boolean placeRooms(DungeonGrid g, SplittableRandom rng, int number, int maxsize, int minsize, int attempts, RoomIndex rooms, RoomCursor c, long steps){
+        int ypos, xpos, roomsizex, roomsizey, sizex = g.getWidth(), sizey = g.getHeight();
+        int[] t = g.getCells();
         boolean ok;
 
-        for (int i = 0; i < number*10 && num < number; i++) {
-            ypos = (int) (Math.random() * (sizey-2)) + 1;
-            xpos = (int) (Math.random() * (sizex-2)) + 1;
+        if(!c.started){
+            rooms.reset(sizex, sizey, Math.max(maxsize, minsize));
+            c.started = true;
+        }
+        long limit = (long) number * attempts;
+        for (; c.attempts < limit && c.num < number; c.attempts++) {
+            if(steps-- <= 0){
+                return false;
+            }
+            ypos = (int) (rng.nextDouble() * (sizey-2)) + 1;
+            xpos = (int) (rng.nextDouble() * (sizex-2)) + 1;
             if(xpos % 2 == 0){
                 xpos--;
             }
             if(ypos % 2 == 0){
                 ypos--;
             }
-            roomsizex = ((int) (Math.random() * (maxsize - minsize)) + minsize);
-            roomsizey = ((int) (Math.random() * (maxsize - minsize)) + minsize);
+            roomsizex = ((int) (rng.nextDouble() * (maxsize - minsize)) + minsize);
+            roomsizey = ((int) (rng.nextDouble() * (maxsize - minsize)) + minsize);
             if(roomsizex % 2 == 0){
                 roomsizex--;
             }
@@ -82,389 +400,552 @@ public class DungeonGenerator {
                 roomsizey--;
             }
             ok = true;
-            for (int j = xpos; j < xpos + roomsizex; j++) {
-                for (int k = ypos; k < ypos + roomsizey; k++) {
-                    if (inBounds(t, j, k)) {
-                        if (t[j][k] != 0) {
-                            ok = false;
-                        }
-                    } else {
-                        ok = false;
-                    }
-                }
-
+            if(roomsizex > 0 && roomsizey > 0){
+                ok = g.inBounds(xpos + roomsizex - 1, ypos + roomsizey - 1) && !rooms.overlaps(xpos, ypos, roomsizex, roomsizey);
             }
             if (ok) {
-                num++;
-                for (int l = xpos; l < xpos + roomsizex; l++) {
-                    for (int m = ypos; m < ypos + roomsizey; m++) {
-                        t[l][m] = num;
+                c.num++;
+                if(roomsizex > 0 && roomsizey > 0){
+                    rooms.add(xpos, ypos, roomsizex, roomsizey);
+                }
+                for (int m = ypos; m < ypos + roomsizey; m++) {
+                    int idx = g.index(xpos, m);
+                    for (int l = 0; l < roomsizex; l++) {
+                        t[idx + l] = c.num;
                     }
                 }
+                int area = Math.max(roomsizex, 0) * Math.max(roomsizey, 0);
+                c.tiles += area;
+                steps -= area;
             }
         }
-        return num;
+        return true;
     }
 
     /**
-     * Fills the empty space in a given 2D matrix with random passageways
-     * @param t 2D matrix
-     * @param num number of regions already created in the matrix
+     * Fills the empty space in a given grid with random passageways
+     * @param g grid
+     * @param rng random generator
+     * @param num number of regions already created in the grid
+     * @param stack work stack
+     * @param m metrics, can be null
      */
-    private static void createMaze(int[][] t, int num) {
-        int sizex = t.length, sizey = t[0].length;
+    static void createMaze(DungeonGrid g, SplittableRandom rng, int num, IntStack stack, GenerationMetrics m) {
+        MazeCursor c = new MazeCursor(num);
+        carveMaze(g, rng, c, stack, Long.MAX_VALUE);
+        c.report(m);
+    }
 
-        for (int i = 1; i < sizex; i += 2) {
-            for (int j = 1; j < sizey; j += 2) {
-                if (numOuts(t, i, j) == 0) {
-                    t[i][j] = num;
-                    tunnel(t, i, j);
-                    num++;
+    /**
+     * Where createMaze is in a grid, so the maze can be carved a part at a time with carveMaze.
+     * The path of the passageway being carved is kept in the work stack.
+     */
+    static final class MazeCursor {
+        //Next tile to start a maze from, and region number of the next maze
+        int i = 1, j = 1, num;
+        //Region number of the maze being carved
+        int region;
+        int mazes, tiles;
+
+        MazeCursor(int num) {
+            this.num = num;
+        }
 
-                }
+        /**
+         * Adds the counters of the maze to the metrics
+         * @param m metrics, can be null
+         */
+        void report(GenerationMetrics m){
+            if(m != null){
+                m.mazes += mazes;
+                m.add(GenerationPhase.CREATE_MAZE, 0, tiles);
             }
         }
     }
 
     /**
-     * Connects all regions in a 2D matrix
-     * @param t 2D matrix
+     * Carves the maze from where a cursor was left, for at most a number of steps. Carving it in many calls, with the
+     * same random generator and work stack, gives the same maze as carving it in one.
+     * @param g grid
+     * @param rng random generator
+     * @param c cursor, moved forward
+     * @param stack work stack, holding the passageway being carved between calls
+     * @param steps maximum number of tiles looked at to start a maze or to tunnel from
+     * @return true once the whole maze is carved
      */
-    private static void connectRegions(int[][] t){
-        int sizex = t.length, sizey = t[0].length;
-        boolean done = false;
-        for(int i = 0; done == false; i++) {
-            connectMainRegion(t, t[1][1]);
-            for (int k = 1; k < sizex; k += 1) {
-                for (int j = 1; j < sizey; j += 1) {
-                    if(t[k][j] == -1){
-                        t[k][j] = 0;
-                    }
-                    if (isConnector(t, k, j)) {
-                        t[k][j] = -1;
-                    }
-
-                }
+    static boolean carveMaze(DungeonGrid g, SplittableRandom rng, MazeCursor c, IntStack stack, long steps) {
+        int[] t = g.getCells();
+        int stride = g.getStride(), limitx = g.getLimitX(), limity = g.getLimitY();
+
+        while(true){
+            steps = tunnel(g, rng, c, stack, steps);
+            if(!stack.isEmpty()){
+                return false;
             }
-            done = true;
-            for (int k = 1; k < sizex; k += 1) {
-                for (int j = 1; j < sizey; j += 1) {
-                    if(t[k][j] > 0 && t[k][j] != t[1][1]){
-                        done = false;
-                    }
+            if(c.j >= limity){
+                return true;
+            }
+            if(steps-- <= 0){
+                return false;
+            }
+            int i = c.i, j = c.j;
+            c.i += 2;
+            if(c.i >= limitx){
+                c.i = 1;
+                c.j += 2;
+            }
+            int idx = g.index(i, j);
+            if (numOuts(t, stride, idx) == 0) {
+                t[idx] = c.num;
+                c.region = c.num;
+                c.tiles++;
+                c.num++;
+                c.mazes++;
+                if(g.inBounds(i, j)){
+                    stack.push(i);
+                    stack.push(j);
                 }
             }
         }
     }
 
-    private static void eraseColumns(int[][] t, boolean yes){
-        int sizex = t.length, sizey = t[0].length;
-        if(yes){
-            for (int i = 1; i < sizex; i += 1) {
-                for (int j = 1; j < sizey; j += 1) {
-                    if(numOuts(t, i, j) == 4){
-                        t[i][j] = 1;
-                        fill(t, i, j, 1);
-                    }
-                }
+    /**
+     * Connects all regions in a grid
+     * @param g grid
+     * @param rng random generator
+     * @param b buffers
+     * @param m metrics, can be null
+     */
+    static void connectRegions(DungeonGrid g, SplittableRandom rng, GenerationBuffers b, GenerationMetrics m){
+        RegionConnector.connect(g, rng, b, m);
+    }
+
+    /**
+     * Where one of the phases run over the bitboard is in a grid, so it can be run a part at a time.
+     * The bitboard, and the tiles trim still has to look at, are kept in the buffers.
+     */
+    static final class BoardCursor {
+        static final int LOAD = 0, PASS = 1, CHANGES = 2, STORE = 3, TRIM_SCAN = 4, TRIM_ERASE = 5, DONE = 6;
+
+        int stage;
+        //Next row of the bitboard, or next tile of the work stack, of the stage
+        int position;
+        //Tiles changed by the pass being run
+        int changed;
+        int passes, tiles;
+        //If trim swapped the stack of the tiles just erased and the one of the tiles to erase next
+        boolean swapped;
+
+        /**
+         * Adds the counters of the phase to the metrics
+         * @param phase TRIM, ERASE_COLUMNS or EXPAND
+         * @param m metrics, can be null
+         */
+        void report(GenerationPhase phase, GenerationMetrics m){
+            if(m == null){
+                return;
             }
+            switch (phase) {
+                case TRIM: m.trimPasses += passes; break;
+                case ERASE_COLUMNS: m.columnsErased += tiles; break;
+                default: m.expandPasses += passes; break;
+            }
+            m.add(phase, 0, tiles);
         }
     }
 
     /**
-     * Erases dead ends from tha 2D matrix. A tile is considered a dead end if it only has one surrounding free tile
-     * @param t 2D matrix
-     * @param trim number of times to trim
+     * Runs a stage of a bitboard phase over the next rows of the grid, about a number of tiles of them
+     * @param g grid
+     * @param board bitboard
+     * @param c cursor, its position moved to the next row
+     * @param rule rule of the passes
+     * @param out stack the changes are pushed to
+     * @param steps number of tiles to look at
+     * @return steps left, the stage being done once the position reaches the number of rows
      */
-    private static void trim(int[][] t, int trim){
-
-        int sizex = t.length, sizey = t[0].length;
-        int[][] taux = new int[sizex][sizey];
-
-        for (int i = 1; i < sizex; i += 1) {
-            for (int j = 1; j < sizey; j += 1) {
-                taux[i][j] = t[i][j];
-            }
+    private static long boardRows(DungeonGrid g, RowBitboard board, BoardCursor c, int rule, IntStack out, long steps){
+        int rows = g.getHeight() + 2, stride = g.getStride();
+        if(steps <= 0 || c.position >= rows){
+            return steps;
         }
-        for(int k = 0; k < trim; k++){
-            for (int i = 1; i < sizex; i += 1) {
-                for (int j = 1; j < sizey; j += 1) {
-                    if(numOuts(t, i, j) == 1){
-                        taux[i][j] = 0;
-                    }
+        int from = c.position;
+        int to = from + (int) Math.max(1, Math.min(rows - from, steps / stride));
+        switch (c.stage) {
+            case BoardCursor.LOAD:
+                if(from == 0){
+                    board.begin(g);
                 }
-            }
-            for (int i = 1; i < sizex; i += 1) {
-                for (int j = 1; j < sizey; j += 1) {
-                    t[i][j] = taux[i][j];
-                }
-            }
+                board.load(g, from, to);
+                break;
+            case BoardCursor.PASS: c.changed += board.pass(rule, from, to); break;
+            case BoardCursor.CHANGES: board.changes(out, from, to); break;
+            default: board.store(g, from, to); break;
         }
+        c.position = to;
+        return steps - (long) (to - from) * stride;
     }
 
     /**
-     * In the 2D matrix, removes walls that are surrounded by 3 empty spaces or more.
-     * @param t 2D matrix
-     * @param expand number of times to expand
+     * Moves a bitboard phase to its next stage once the current one went through every row
+     * @param g grid
+     * @param c cursor
+     * @param stage next stage
+     * @return if the current stage is done
      */
-    private static void expand(int[][] t, int expand){
+    private static boolean nextStage(DungeonGrid g, BoardCursor c, int stage){
+        if(c.position < g.getHeight() + 2){
+            return false;
+        }
+        c.stage = stage;
+        c.position = 0;
+        c.changed = 0;
+        return true;
+    }
 
-        int sizex = t.length, sizey = t[0].length;
-        int[][] taux = new int[sizex][sizey];
+    /**
+     * Erases the walls that have no other wall around them
+     * @param g grid of 0s and 1s
+     * @param yes if we want lone walls to be erased or not
+     * @param board bitboard used to look at 64 tiles at once
+     * @param m metrics, can be null
+     */
+    static void eraseColumns(DungeonGrid g, boolean yes, RowBitboard board, GenerationMetrics m){
+        BoardCursor c = new BoardCursor();
+        eraseColumns(g, yes, board, c, Long.MAX_VALUE);
+        c.report(GenerationPhase.ERASE_COLUMNS, m);
+    }
 
-        for (int i = 1; i < sizex; i += 1) {
-            for (int j = 1; j < sizey; j += 1) {
-                taux[i][j] = t[i][j];
-            }
+    /**
+     * Erases the lone walls from where a cursor was left, for about a number of tiles
+     * @param g grid of 0s and 1s
+     * @param yes if we want lone walls to be erased or not
+     * @param board bitboard, holding the grid between calls
+     * @param c cursor, moved forward
+     * @param steps number of tiles to look at
+     * @return true once the phase is done
+     */
+    static boolean eraseColumns(DungeonGrid g, boolean yes, RowBitboard board, BoardCursor c, long steps){
+        if(!yes){
+            return true;
         }
-        for(int k = 0; k < expand; k++){
-            for (int i = 1; i < sizex; i += 1) {
-                for (int j = 1; j < sizey; j += 1) {
-                    if(numOuts(t, i, j) >= 3){
-                        taux[i][j] = 1;
-                        fill(t, i, j, 1);
-                    }
-                }
+        //A lone wall has open tiles to its right and below, so erasing it never makes another lone wall:
+        //they can all be found at once
+        if(c.stage == BoardCursor.LOAD){
+            steps = boardRows(g, board, c, RowBitboard.ERASE_COLUMNS, null, steps);
+            if(!nextStage(g, c, BoardCursor.PASS)){
+                return false;
             }
-            for (int i = 1; i < sizex; i += 1) {
-                for (int j = 1; j < sizey; j += 1) {
-                    t[i][j] = taux[i][j];
-                }
+        }
+        if(c.stage == BoardCursor.PASS){
+            steps = boardRows(g, board, c, RowBitboard.ERASE_COLUMNS, null, steps);
+            int changed = c.changed;
+            if(!nextStage(g, c, BoardCursor.STORE)){
+                return false;
             }
+            board.endPass();
+            c.tiles = changed;
+        }
+        if(c.stage == BoardCursor.STORE){
+            boardRows(g, board, c, RowBitboard.ERASE_COLUMNS, null, steps);
+            return nextStage(g, c, BoardCursor.DONE);
         }
+        return true;
     }
 
     /**
-     * Recursive function. Given a point in a 2D matrix, tunnels 2 tiles in one of the cardinal directions at random if possible, then calls itself in the new point
-     * in order to create a random maze to fill the empty space in the matrix
-     * @param t 2D matrix
-     * @param i x position to tunnel from
-     * @param j y position to tunnel from
+     * Erases dead ends from tha grid. A tile is considered a dead end if it only has one surrounding free tile.
+     * Every pass erases the dead ends left by the one before, and stops early once there are none left,
+     * so a big number of times trims every dead end.
+     * @param g grid of 0s and 1s
+     * @param trim number of times to trim
+     * @param b buffers
+     * @param m metrics, can be null
      */
-    private static void tunnel(int[][] t, int i, int j){
-        if(inBounds(t, i, j)){
-            int[] options = new int[4];
-            for(int k = 0; k < options.length; k++){
-                options[k] = 1;
-            }
-            boolean done = false;
-            while(!done) {
-                if(options[0]+options[1]+options[2]+options[3] == 0){
-                    done = true;
-                }else {
-                    int choice;
-                    do {
-                        choice = (int) (Math.random() * 4);
-                    } while (options[choice] != 1);
-                    options[choice] = 0;
-                    switch (choice) {
-                        case 0:
-                            if (inBounds(t, i + 2, j) && numOuts(t, i + 2, j) <= 1 && t[i+2][j] != t[i][j]) {
-                                t[i + 2][j] = t[i][j];
-                                t[i + 1][j] = t[i][j];
-                                done = true;
-                                tunnel(t, i + 2, j);
-                            }
-                            break;
-                        case 1:
-                            if (inBounds(t, i - 2, j) && numOuts(t, i - 2, j) <= 1 && t[i-2][j] != t[i][j]) {
-                                t[i - 2][j] = t[i][j];
-                                t[i - 1][j] = t[i][j];
-                                done = true;
-                                tunnel(t, i - 2, j);
-                            }
-                            break;
-                        case 2:
-                            if (inBounds(t, i, j + 2) && numOuts(t, i, j + 2) <= 1 && t[i][j+2] != t[i][j]) {
-                                t[i][j + 2] = t[i][j];
-                                t[i][j + 1] = t[i][j];
-                                done = true;
-                                tunnel(t, i, j + 2);
-                            }
-                            break;
-                        case 3:
-                            if (inBounds(t, i, j - 2) && numOuts(t, i, j - 2) <= 1 && t[i][j-2] != t[i][j]) {
-                                t[i][j - 2] = t[i][j];
-                                t[i][j - 1] = t[i][j];
-                                done = true;
-                                tunnel(t, i, j - 2);
-                            }
-                            break;
-                    }
-                }
-            }
-        }
+    static void trim(DungeonGrid g, int trim, GenerationBuffers b, GenerationMetrics m){
+        BoardCursor c = new BoardCursor();
+        trim(g, trim, b, c, Long.MAX_VALUE);
+        c.report(GenerationPhase.TRIM, m);
     }
 
     /**
-     * Given a 2D matrix and one position in it, returns the number of empty spaces adjacent to that tile in one of the 4 cardinal directions (0-4).
-     * Returns -1 if the position is out of bounds.
-     * @param t 2D matrix
-     * @param xpos x position
-     * @param ypos y position
-     * @return number of empty spaces adjacent to the tile in one of the cardinal directions
+     * Trims dead ends from where a cursor was left, for about a number of tiles. Trimming in many calls, with the
+     * same buffers, erases the same tiles as trimming in one.
+     * @param g grid of 0s and 1s
+     * @param trim number of times to trim
+     * @param b buffers, holding the bitboard and the tiles to look at between calls
+     * @param c cursor, moved forward
+     * @param steps number of tiles to look at
+     * @return true once the phase is done
      */
-    private static int numOuts(int[][] t, int xpos, int ypos){
-        int numOuts = 0;
-        if(inBounds(t, xpos, ypos)) {
-            if (inBounds(t, xpos + 1, ypos)) {
-                if (t[xpos + 1][ypos] > 0) {
-                    numOuts++;
-                }
+    static boolean trim(DungeonGrid g, int trim, GenerationBuffers b, BoardCursor c, long steps){
+        if(trim <= 0){
+            return true;
+        }
+        RowBitboard board = b.board;
+        IntStack changed = c.swapped ? b.work : b.stack, next = c.swapped ? b.stack : b.work;
+
+        //First pass over the whole grid
+        if(c.stage == BoardCursor.LOAD){
+            steps = boardRows(g, board, c, RowBitboard.TRIM, null, steps);
+            if(!nextStage(g, c, BoardCursor.PASS)){
+                return false;
             }
-            if (inBounds(t, xpos - 1, ypos)) {
-                if (t[xpos - 1][ypos] > 0) {
-                    numOuts++;
-                }
+        }
+        if(c.stage == BoardCursor.PASS){
+            steps = boardRows(g, board, c, RowBitboard.TRIM, null, steps);
+            int erased = c.changed;
+            if(!nextStage(g, c, BoardCursor.CHANGES)){
+                return false;
             }
-            if (inBounds(t, xpos, ypos + 1)) {
-                if (t[xpos][ypos + 1] > 0) {
-                    numOuts++;
-                }
+            board.endPass();
+            c.tiles = erased;
+            c.passes = 1;
+        }
+        if(c.stage == BoardCursor.CHANGES){
+            steps = boardRows(g, board, c, RowBitboard.TRIM, changed, steps);
+            if(!nextStage(g, c, BoardCursor.STORE)){
+                return false;
+            }
+        }
+        if(c.stage == BoardCursor.STORE){
+            steps = boardRows(g, board, c, RowBitboard.TRIM, null, steps);
+            if(!nextStage(g, c, BoardCursor.TRIM_SCAN)){
+                return false;
             }
-            if (inBounds(t, xpos, ypos - 1)) {
-                if (t[xpos][ypos - 1] > 0) {
-                    numOuts++;
+        }
+
+        //Only the tiles next to the ones just erased can have become dead ends. They are marked with a 2 until the
+        //whole pass is found, so they still count as free for their neighbours, as in a pass over a copy of the grid
+        int[] t = g.getCells();
+        int stride = g.getStride();
+        while(c.stage != BoardCursor.DONE){
+            if(c.stage == BoardCursor.TRIM_SCAN){
+                if(c.passes >= trim){
+                    break;
+                }
+                while(!changed.isEmpty()){
+                    if(steps-- <= 0){
+                        return false;
+                    }
+                    int idx = changed.pop();
+                    for (int k = 0; k < 4; k++) {
+                        int n;
+                        switch (k) {
+                            case 0: n = idx + 1; break;
+                            case 1: n = idx - 1; break;
+                            case 2: n = idx + stride; break;
+                            default: n = idx - stride; break;
+                        }
+                        if(t[n] == 1 && numOuts(t, stride, n) == 1){
+                            t[n] = 2;
+                            next.push(n);
+                        }
+                    }
                 }
+                if(next.isEmpty()){
+                    break;
+                }
+                c.passes++;
+                c.tiles += next.size();
+                IntStack aux = changed;
+                changed = next;
+                next = aux;
+                c.swapped = !c.swapped;
+                c.stage = BoardCursor.TRIM_ERASE;
+                c.position = 0;
+            }else{
+                int end = c.position + (int) Math.min(changed.size() - c.position, Math.max(steps, 0));
+                for (int k = c.position; k < end; k++) {
+                    t[changed.get(k)] = 0;
+                }
+                steps -= end - c.position;
+                c.position = end;
+                if(end < changed.size()){
+                    return false;
+                }
+                c.stage = BoardCursor.TRIM_SCAN;
             }
-        }else{
-            numOuts = -1;
         }
-        return numOuts;
+        changed.clear();
+        c.stage = BoardCursor.DONE;
+        return true;
     }
 
     /**
-     * Given a position in the 2D matrix, checks if that tile is a wall that is separating two different regions and is in a odd position in at least one of the two coordinates
-     * @param t 2D matrix
-     * @param i x position
-     * @param j y position
-     * @return boolean that indicates if the tile is a wall that is separating two different regions
+     * In the grid, removes walls that are surrounded by 3 empty spaces or more. Stops early when a pass removes nothing.
+     * @param g grid of 0s and 1s
+     * @param expand number of times to expand
+     * @param board bitboard used to look at 64 tiles at once
+     * @param m metrics, can be null
      */
-    private static boolean isConnector(int[][] t, int i, int j){
-        int[] outs = new int[2];
-        int index = 0;
-        if(numOuts(t, i, j) == 2 && t[i][j] == 0){
-            if(t[i+1][j] > 0){
-                outs[index] = t[i+1][j];
-                index++;
-            }
-            if(t[i-1][j] > 0){
-                outs[index] = t[i-1][j];
-                index++;
-            }
-            if(t[i][j+1] > 0){
-                outs[index] = t[i][j+1];
-                index++;
+    static void expand(DungeonGrid g, int expand, RowBitboard board, GenerationMetrics m){
+        BoardCursor c = new BoardCursor();
+        expand(g, expand, board, c, Long.MAX_VALUE);
+        c.report(GenerationPhase.EXPAND, m);
+    }
+
+    /**
+     * Expands from where a cursor was left, for about a number of tiles
+     * @param g grid of 0s and 1s
+     * @param expand number of times to expand
+     * @param board bitboard, holding the grid between calls
+     * @param c cursor, moved forward
+     * @param steps number of tiles to look at
+     * @return true once the phase is done
+     */
+    static boolean expand(DungeonGrid g, int expand, RowBitboard board, BoardCursor c, long steps){
+        if(expand <= 0){
+            return true;
+        }
+        if(c.stage == BoardCursor.LOAD){
+            steps = boardRows(g, board, c, RowBitboard.EXPAND, null, steps);
+            if(!nextStage(g, c, BoardCursor.PASS)){
+                return false;
             }
-            if(t[i][j-1] > 0){
-                outs[index] = t[i][j-1];
-                index++;
+        }
+        while(c.stage == BoardCursor.PASS){
+            steps = boardRows(g, board, c, RowBitboard.EXPAND, null, steps);
+            int changed = c.changed;
+            if(!nextStage(g, c, BoardCursor.PASS)){
+                return false;
             }
-            if(outs[0] != outs[1] && ((i%2==1)||(j%2==1))){
-                return true;
+            board.endPass();
+            c.passes++;
+            c.tiles += changed;
+            if(changed == 0 || c.passes == expand){
+                c.stage = BoardCursor.STORE;
             }
         }
-        return false;
+        if(c.stage == BoardCursor.STORE){
+            boardRows(g, board, c, RowBitboard.EXPAND, null, steps);
+            return nextStage(g, c, BoardCursor.DONE);
+        }
+        return true;
     }
 
     /**
-     * Given a 2D matrix, ensures that connected regions have the same number
-     * @param t 2D matrix
+     * Given a point in a grid, tunnels 2 tiles in one of the cardinal directions at random if possible and keeps going from the new point,
+     * backtracking when it gets stuck, in order to create a random maze to fill the empty space in the grid.
+     * The path is kept in an explicit stack, so the length of the passageways is not limited by the thread stack, and
+     * tunnelling can stop after a number of steps and go on later from the same stack.
+     * @param g grid
+     * @param rng random generator
+     * @param c cursor of the maze, holding the region being carved and counting the tiles carved
+     * @param stack work stack, holding the points still to tunnel from
+     * @param steps maximum number of points to tunnel from
+     * @return steps left
      */
-    private static void floodFill(int[][] t){
-        int sizex = t.length, sizey = t[0].length;
-        for (int i = 1; i < sizex; i += 1) {
-            for (int j = 1; j < sizey; j += 1) {
-                if(inBounds(t, i, j) && t[i][j] > 0){
-                    fill(t, i, j, t[i][j]);
+    private static long tunnel(DungeonGrid g, SplittableRandom rng, MazeCursor c, IntStack stack, long steps){
+        int carved = 0;
+        int[] t = g.getCells();
+        int stride = g.getStride();
+        int[] offsets = g.getNeighborOffsets();
+        int region = c.region;
+        while(!stack.isEmpty() && steps > 0){
+            steps--;
+            int y = stack.pop();
+            int x = stack.pop();
+            int idx = g.index(x, y);
+            int[] order = DIRECTION_ORDERS[rng.nextInt(DIRECTION_ORDERS.length)];
+            for (int k = 0; k < 4; k++) {
+                int nx = x + DX[order[k]]*2, ny = y + DY[order[k]]*2;
+                int step = offsets[order[k]];
+                int next = idx + step*2;
+                if (g.inBounds(nx, ny) && numOuts(t, stride, next) <= 1 && t[next] != region) {
+                    t[next] = region;
+                    t[idx + step] = region;
+                    carved += 2;
+
+                    //Come back to this point once the new branch is finished
+                    stack.push(x);
+                    stack.push(y);
+                    stack.push(nx);
+                    stack.push(ny);
+                    break;
                 }
             }
         }
+        c.tiles += carved;
+        return steps;
     }
 
     /**
-     * Recursive function. Given a position in the 2D matrix and a value, changes the value of all non-wall adjacent tiles to that value, then calls itself on those tiles
-     * Used to make two connected regions into one
-     * @param t 2D matrix
-     * @param i x position
-     * @param j y position
-     * @param v region value to fill with
+     * Given the cells of a grid and one tile within its usable boundaries, returns the number of empty spaces adjacent to that tile in one of the 4 cardinal directions (0-4).
+     * Tiles out of the usable boundaries are never empty, so no bounds need to be checked.
+     * @param t cells of the grid
+     * @param stride stride of the grid
+     * @param idx index of the tile
+     * @return number of empty spaces adjacent to the tile in one of the cardinal directions
      */
-    private static void fill(int[][] t, int i, int j, int v){
-
-        if (t[i + 1][j] > 0 && t[i+1][j] != v) {
-            t[i + 1][j] = v;
-            fill(t, i+1, j, v);
+    private static int numOuts(int[] t, int stride, int idx){
+        int numOuts = 0;
+        if (t[idx + 1] > 0) {
+            numOuts++;
         }
-        if (t[i - 1][j] > 0 && t[i-1][j] != v) {
-            t[i - 1][j] = v;
-            fill(t, i-1, j, v);
+        if (t[idx - 1] > 0) {
+            numOuts++;
         }
-        if (t[i][j+1] > 0 && t[i][j+1] != v) {
-            t[i][j+1] = v;
-            fill(t, i, j+1, v);
+        if (t[idx + stride] > 0) {
+            numOuts++;
         }
-        if (t[i][j-1] > 0 && t[i][j-1] != v) {
-            t[i][j-1] = v;
-            fill(t, i, j-1, v);
+        if (t[idx - stride] > 0) {
+            numOuts++;
         }
+        return numOuts;
     }
 
     /**
-     * In the 2D matrix, looks for all the connectors between the main region and other regions and chooses one of them at random.
-     * Then connects the main region and another region using that connector and discards other connectors between that two regions,
-     * with a small chance of using them too.
-     * Then fills tha main region so it assimilates the region it's been connected to.
-     * @param t 2D matrix
-     * @param region number of the region used as main region
+     * Given a grid, ensures that connected regions have the same number
+     * @param g grid
+     * @param stack work stack
+     * @param m metrics, can be null
      */
-    private static void connectMainRegion(int[][] t, int region){
-        int sizex = t.length, sizey = t[0].length;
-        ArrayList<Point> connectors = new ArrayList<Point>(0);
-        for (int i = 1; i < sizex; i += 1) {
-            for (int j = 1; j < sizey; j += 1) {
-                if(t[i][j] == region){
-                    if(t[i+1][j] == -1){
-                        connectors.add(new Point(i+1, j));
-                    }
-                    if(t[i-1][j] == -1){
-                        connectors.add(new Point(i-1, j));
-                    }
-                    if(t[i][j+1] == -1){
-                        connectors.add(new Point(i, j+1));
-                    }
-                    if(t[i][j-1] == -1){
-                        connectors.add(new Point(i, j-1));
-                    }
-                }
+    static void floodFill(DungeonGrid g, IntStack stack, GenerationMetrics m){
+        ScanlineFill.LabelCursor c = new ScanlineFill.LabelCursor();
+        ScanlineFill.labelAll(g, c, stack, Long.MAX_VALUE);
+        c.report(m);
+    }
+
+    /**
+     * Sets every non-wall tile of the grid to 1
+     * @param g grid
+     */
+    static void flatten(DungeonGrid g){
+        flatten(g, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Sets the non-wall tiles of a part of the grid to 1
+     * @param g grid
+     * @param from first index of the cells
+     * @param steps number of tiles to look at
+     * @return next index to look at, the length of the cells once done
+     */
+    static int flatten(DungeonGrid g, int from, long steps){
+        int[] t = g.getCells();
+        int end = from + (int) Math.min(t.length - from, Math.max(steps, 0));
+        for (int idx = from; idx < end; idx++) {
+            if(t[idx] > 0){
+                t[idx] = 1;
             }
         }
+        return end;
+    }
 
-        if(connectors.size() > 0) {
-            for (Point p : connectors) {
-                if(Math.random()*1000 > 999){
-                    t[(int) p.getX()][(int) p.getY()] = region;
+    private static int[][] permutations(){
+        int[][] orders = new int[24][];
+        int n = 0;
+        for (int a = 0; a < 4; a++) {
+            for (int b = 0; b < 4; b++) {
+                for (int c = 0; c < 4; c++) {
+                    if(a != b && a != c && b != c){
+                        orders[n++] = new int[]{a, b, c, 6 - a - b - c};
+                    }
                 }
             }
-            int choice = (int) (Math.random() * connectors.size());
-            Point out = connectors.get(choice);
-            t[(int) out.getX()][(int) out.getY()] = region;
-            fill(t, (int) out.getX(), (int) out.getY(), region);
         }
-
-    }
-
-    /**
-     * Given a position in the 2D matrix, checks if it is within its usable boundaries, which means that its not in its borders,
-     * the borders being placed in the higher odd number possible.
-     * @param t 2D matrix
-     * @param xpos x position
-     * @param ypos y position
-     * @return boolean answer
-     */
-    private static boolean inBounds(int[][] t, int xpos, int ypos){
-        int sizex = t.length, sizey = t[0].length;
-        return (xpos>=1&&ypos>=1&&xpos<sizex-2+sizex%2&&ypos<sizey-2+sizey%2);
+        return orders;
     }
 
 }
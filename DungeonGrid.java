@@ -0,0 +1,201 @@
+import java.util.Arrays;
+
+/**
+ * Grid of integers stored in a single flat array, row after row, with a one tile border of padding around it.
+ * Used for region numbers while generating a dungeon and for the light values of DungeonIlluminator.
+ * Thanks to the padding, the four neighbours of any tile of the grid can be read without checking bounds:
+ * they are at index + 1, index - 1, index + stride and index - stride.
+ */
+public class DungeonGrid {
+    private final int width, height, stride;
+    private final int[] cells;
+    private final int[] neighborOffsets;
+    private int version;
+
+    /**
+     * Creates a grid full of 0s (walls)
+     * @param width horizontal size
+     * @param height vertical size
+     */
+    public DungeonGrid(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.stride = width + 2;
+        this.cells = new int[stride * (height + 2)];
+        this.neighborOffsets = new int[]{1, -1, stride, -stride};
+    }
+
+    /**
+     * Copies a 2D matrix, as used by the int[][] methods of DungeonGenerator and DungeonIlluminator, into a grid
+     * @param t 2D matrix, indexed [x][y]
+     * @return grid with the same values
+     */
+    public static DungeonGrid fromArray(int[][] t){
+        DungeonGrid g = new DungeonGrid(t.length, t[0].length);
+        for (int i = 0; i < g.width; i += 1) {
+            int[] column = t[i];
+            int idx = g.index(i, 0);
+            for (int j = 0; j < g.height; j += 1) {
+                g.cells[idx] = column[j];
+                idx += g.stride;
+            }
+        }
+        return g;
+    }
+
+    /**
+     * Copies the grid into a new 2D matrix
+     * @return 2D matrix, indexed [x][y]
+     */
+    public int[][] toArray(){
+        int[][] t = new int[width][height];
+        for (int j = 0; j < height; j += 1) {
+            int idx = index(0, j);
+            for (int i = 0; i < width; i += 1) {
+                t[i][j] = cells[idx + i];
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Packs the grid into a mask with one bit per tile, set for the tiles with a value greater than 0
+     * @return walkable mask
+     */
+    public WalkableMask toMask(){
+        return new WalkableMask(this);
+    }
+
+    public int get(int x, int y){
+        return cells[index(x, y)];
+    }
+
+    public void set(int x, int y, int value){
+        int idx = index(x, y);
+        if(cells[idx] != value){
+            cells[idx] = value;
+            version++;
+        }
+    }
+
+    /**
+     * Sets every tile of the grid to a value. The border padding is left at 0, as the algorithms relying on it to stop
+     * at the edges need.
+     * @param value value to fill with
+     */
+    public void fill(int value){
+        for (int y = 0; y < height; y++) {
+            int idx = index(0, y);
+            Arrays.fill(cells, idx, idx + width, value);
+        }
+        version++;
+    }
+
+    /**
+     * Sets every tile of the grid, border padding included, to a value. Used by the light grids, whose padding is lit
+     * like any other tile
+     * @param value value to fill with
+     */
+    public void fillAll(int value){
+        Arrays.fill(cells, value);
+        version++;
+    }
+
+    /**
+     * Counts a change made to the grid through the array returned by getCells, as set and fill do
+     */
+    public void markChanged(){
+        version++;
+    }
+
+    /**
+     * Number that changes every time the grid is modified through set, fill or markChanged.
+     * Used to know if something computed from the grid, like the light of a source, is still valid.
+     * @return version of the grid
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the position of a tile in the flat array
+     * @param x x position, from 0 to width - 1
+     * @param y y position, from 0 to height - 1
+     * @return index in the array returned by getCells
+     */
+    public int index(int x, int y){
+        return (y + 1) * stride + x + 1;
+    }
+
+    /**
+     * @param index index in the flat array
+     * @return x position of the tile
+     */
+    public int xOf(int index){
+        return index % stride - 1;
+    }
+
+    /**
+     * @param index index in the flat array
+     * @return y position of the tile
+     */
+    public int yOf(int index){
+        return index / stride - 1;
+    }
+
+    /**
+     * Given a position in the grid, checks if it is within its usable boundaries, which means that its not in its borders,
+     * the borders being placed in the higher odd number possible.
+     * @param x x position
+     * @param y y position
+     * @return boolean answer
+     */
+    public boolean inBounds(int x, int y){
+        return (x>=1&&y>=1&&x<getLimitX()&&y<getLimitY());
+    }
+
+    /**
+     * @return first x position out of the usable boundaries of the grid
+     */
+    public int getLimitX(){
+        return width - 2 + width % 2;
+    }
+
+    /**
+     * @return first y position out of the usable boundaries of the grid
+     */
+    public int getLimitY(){
+        return height - 2 + height % 2;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return distance in the flat array between a tile and the one below it
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Flat array backing the grid. Changes to it are changes to the grid, but don't change its version until markChanged is called.
+     * @return the array
+     */
+    public int[] getCells() {
+        return cells;
+    }
+
+    /**
+     * Offsets to add to an index to get its four neighbours, in the order x+1, x-1, y+1, y-1. Must not be modified.
+     * @return the offsets
+     */
+    public int[] getNeighborOffsets() {
+        return neighborOffsets;
+    }
+}
@@ -1,10 +1,14 @@
-import java.awt.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Created by FerranRuiz on 06/02/2015.
  */
 public class DungeonIlluminator {
+    private static final int BUCKET = 32;
 
     /**
      * Given a 2D matrix and an ArrayList of Points (light sources), returns a 2D matrix representing the light level on every tile of the 2D matrix
@@ -14,76 +18,475 @@ public class DungeonIlluminator {
      * @return 2D matrix representing the light level on every tile of the original 2D matrix
      */
     public static int[][] illuminate(int[][] t, ArrayList<LightSource> sources, int baselight){
+        return illuminate(DungeonGrid.fromArray(t), sources, baselight).toArray();
+    }
 
-        int sizex = t.length, sizey = t[0].length;
-        int[][] tlight = new int[sizex][sizey];
+    /**
+     * Same as illuminate, lighting only the tiles in sight of each source instead of spreading the light around corners.
+     * To light many frames, reuse a ShadowcastIlluminator and a light grid instead.
+     * @param t 2D matrix
+     * @param sources Arraylist of LightSources.
+     * @param baselight Base level of light with no sources
+     * @return 2D matrix representing the light level on every tile of the original 2D matrix
+     */
+    public static int[][] illuminateShadowcast(int[][] t, ArrayList<LightSource> sources, int baselight){
+        return new ShadowcastIlluminator().illuminate(t, sources, baselight);
+    }
 
-        for (int i = 0; i < sizex; i += 1) {
-            for (int j = 0; j < sizey; j += 1) {
-                tlight[i][j] = baselight;
+    /**
+     * Given a grid of 0s and 1s and a list of light sources, returns a grid representing the light level on every tile of the grid
+     * @param g grid, where 0s are walls and 1s are walkable tiles
+     * @param sources list of LightSources
+     * @param baselight Base level of light with no sources
+     * @return grid representing the light level on every tile of the original grid
+     */
+    public static DungeonGrid illuminate(DungeonGrid g, List<? extends LightSource> sources, int baselight){
+        return illuminate(g, sources, baselight, null);
+    }
+
+    /**
+     * Same as illuminate, adding to the given stats the tiles visited by the sources
+     * @param g grid, where 0s are walls and 1s are walkable tiles
+     * @param sources list of LightSources
+     * @param baselight Base level of light with no sources
+     * @param stats counters to add to, or null to count nothing
+     * @return grid representing the light level on every tile of the original grid
+     */
+    public static DungeonGrid illuminate(DungeonGrid g, List<? extends LightSource> sources, int baselight, IlluminationStats stats){
+        long start = stats == null ? 0 : System.nanoTime();
+
+        DungeonGrid light = new DungeonGrid(g.getWidth(), g.getHeight());
+        light.fillAll(baselight);
+
+        LightPropagator propagator = new LightPropagator();
+        int lit = 0, max = 0;
+        long visited = 0;
+        for(LightSource ls:sources){
+            if(g.inBounds(ls.getX(), ls.getY())) {
+                int tiles = propagator.propagate(g, light, ls.getX(), ls.getY(), ls.getIntensity());
+                lit++;
+                visited += tiles;
+                max = Math.max(max, tiles);
             }
         }
+        if(stats != null){
+            //The propagator is new, so every tile it marked was handled in this call
+            stats.add(lit, visited, max, propagator.countHandledSince(0), System.nanoTime() - start);
+        }
+        return(light);
+    }
 
+    /**
+     * Same as illuminate, only for the tiles of a viewport: only the sources whose light can reach it are spread, on
+     * the part of the grid around it they can light, so the time taken depends on the size of the viewport and the
+     * intensity of the sources near it, not on the size of the grid.
+     * Tile (i, j) of the result has the light tile (x + i, y + j) has in the grid given by illuminate. Tiles out of the
+     * grid and its border take the base light.
+     * @param g grid, where 0s are walls and 1s are walkable tiles
+     * @param sources list of LightSources, each one looked at to know if it reaches the viewport
+     * @param baselight Base level of light with no sources
+     * @param x x position of the first tile of the viewport
+     * @param y y position of the first tile of the viewport
+     * @param width horizontal size of the viewport
+     * @param height vertical size of the viewport
+     * @return grid of the size of the viewport with its light levels
+     */
+    public static DungeonGrid illuminate(DungeonGrid g, List<? extends LightSource> sources, int baselight, int x, int y, int width, int height){
+        List<LightSource> reaching = new ArrayList<LightSource>();
         for(LightSource ls:sources){
-            if(inBounds(t, ls.getX(), ls.getY())) {
-                fillLight(t, tlight, ls.getX(), ls.getY(), ls.getIntensity());
+            int r = Math.max(ls.getIntensity() - baselight, 0) + 1;
+            if(ls.getX() - r < x + width && ls.getX() + r >= x && ls.getY() - r < y + height && ls.getY() + r >= y){
+                reaching.add(ls);
             }
         }
-        return(tlight);
+        return illuminateViewport(g, reaching, baselight, x, y, width, height);
     }
 
     /**
-     * Recursive function. Fills surrounding tiles with light, then calls itself on that tiles decreasing the light value by one.
-     * @param t 2D matrix
-     * @param tlight light values 2D matrix
-     * @param i x position
-     * @param j y position
-     * @param light ligth intensity
+     * Same as illuminate for the tiles of a viewport, finding the sources that reach it through an index instead of
+     * looking at every one, lit in the order they were added to it.
+     * @param g grid, where 0s are walls and 1s are walkable tiles
+     * @param sources index of the light sources of the grid
+     * @param baselight Base level of light with no sources
+     * @param x x position of the first tile of the viewport
+     * @param y y position of the first tile of the viewport
+     * @param width horizontal size of the viewport
+     * @param height vertical size of the viewport
+     * @return grid of the size of the viewport with its light levels
+     */
+    public static DungeonGrid illuminate(DungeonGrid g, LightSourceIndex sources, int baselight, int x, int y, int width, int height){
+        List<LightSource> reaching = new ArrayList<LightSource>();
+        sources.query(x, y, x + width, y + height, baselight, reaching);
+        return illuminateViewport(g, reaching, baselight, x, y, width, height);
+    }
+
+    /**
+     * Same as illuminate for the tiles of a viewport, on a grid stored outside the heap. Only the part of the grid the
+     * sources reaching the viewport can light is read.
+     * @param g grid, where 0s are walls and 1s are walkable tiles
+     * @param sources index of the light sources of the grid
+     * @param baselight Base level of light with no sources
+     * @param x x position of the first tile of the viewport
+     * @param y y position of the first tile of the viewport
+     * @param width horizontal size of the viewport
+     * @param height vertical size of the viewport
+     * @return grid of the size of the viewport with its light levels
+     */
+    public static DungeonGrid illuminate(OffHeapGrid g, LightSourceIndex sources, int baselight, int x, int y, int width, int height){
+        List<LightSource> reaching = new ArrayList<LightSource>();
+        sources.query(x, y, x + width, y + height, baselight, reaching);
+        return illuminateViewport(g.getWidth(), g.getHeight(), g::readRow, reaching, baselight, x, y, width, height);
+    }
+
+    /**
+     * Copies tiles of a row of a grid into an array, x and y going from -1 for the border
      */
-    private static void fillLight(int[][] t, int[][] tlight, int i, int j, int light){
+    private interface RowReader {
+        void read(int x, int y, int[] dst, int offset, int length);
+    }
 
-        tlight[i][j] = light;
+    private static DungeonGrid illuminateViewport(final DungeonGrid g, List<LightSource> sources, int baselight, int x, int y, int width, int height){
+        return illuminateViewport(g.getWidth(), g.getHeight(),
+                (rx, ry, dst, offset, length) -> System.arraycopy(g.getCells(), g.index(rx, ry), dst, offset, length),
+                sources, baselight, x, y, width, height);
+    }
 
-        if (t[i + 1][j] == 1 && tlight[i+1][j] < light) {
-            tlight[i+1][j] = light;
-            fillLight(t, tlight, i+1, j, light-1);
+    /**
+     * Lights a viewport with the sources reaching it, in order, on a copy of the smallest window of the grid holding
+     * the viewport and everything those sources can light. Light never leaves the window of its source, so every source
+     * spreads as it would on the whole grid.
+     */
+    private static DungeonGrid illuminateViewport(int gwidth, int gheight, RowReader rows, List<LightSource> sources, int baselight, int x, int y, int width, int height){
+        DungeonGrid view = new DungeonGrid(width, height);
+        view.fillAll(baselight);
+
+        //Viewport and windows of the sources, kept within the grid and its border
+        int x0 = Math.max(x, -1), y0 = Math.max(y, -1);
+        int x1 = Math.min(x + width, gwidth + 1), y1 = Math.min(y + height, gheight + 1);
+        if(x0 >= x1 || y0 >= y1){
+            return view;
         }
-        if (t[i - 1][j] == 1 && tlight[i-1][j] < light) {
-            tlight[i-1][j] = light;
-            fillLight(t, tlight, i-1, j, light-1);
+        int wx0 = x0, wy0 = y0, wx1 = x1, wy1 = y1;
+        for(LightSource ls:sources){
+            if(inBounds(ls.getX(), ls.getY(), gwidth, gheight)) {
+                int r = Math.max(ls.getIntensity() - baselight, 0) + 1;
+                wx0 = Math.min(wx0, Math.max(ls.getX() - r, -1));
+                wy0 = Math.min(wy0, Math.max(ls.getY() - r, -1));
+                wx1 = Math.max(wx1, Math.min(ls.getX() + r + 1, gwidth + 1));
+                wy1 = Math.max(wy1, Math.min(ls.getY() + r + 1, gheight + 1));
+            }
         }
-        if (t[i][j+1] == 1 && tlight[i][j+1] < light) {
-            tlight[i][j+1] = light;
-            fillLight(t, tlight, i, j+1, light-1);
+
+        //Copy the window with a border of walls around it, so the propagation can run on it as on a whole grid
+        int ww = wx1 - wx0, wh = wy1 - wy0;
+        int stride = ww + 2;
+        int[] t = new int[stride * (wh + 2)];
+        int[] tlight = new int[t.length];
+        for (int j = 0; j < wh; j++) {
+            rows.read(wx0, wy0 + j, t, (j + 1) * stride + 1, ww);
         }
-        if (t[i][j-1] == 1 && tlight[i][j-1] < light) {
-            tlight[i][j-1] = light;
-            fillLight(t, tlight, i, j-1, light-1);
+        Arrays.fill(tlight, baselight);
+
+        LightPropagator propagator = new LightPropagator();
+        for(LightSource ls:sources){
+            if(inBounds(ls.getX(), ls.getY(), gwidth, gheight)) {
+                propagator.propagate(t, tlight, stride, (ls.getY() - wy0 + 1) * stride + ls.getX() - wx0 + 1, ls.getIntensity());
+            }
         }
-        if (t[i + 1][j] == 0 && tlight[i+1][j] < light) {
-            tlight[i+1][j] = light;
+
+        int[] out = view.getCells();
+        for (int j = y0; j < y1; j++) {
+            System.arraycopy(tlight, (j - wy0 + 1) * stride + x0 - wx0 + 1, out, view.index(x0 - x, j - y), x1 - x0);
         }
-        if (t[i - 1][j] == 0 && tlight[i-1][j] < light) {
-            tlight[i-1][j] = light;
+        return view;
+    }
+
+    /**
+     * Same as DungeonGrid.inBounds, for a grid of the given size
+     */
+    private static boolean inBounds(int x, int y, int width, int height){
+        return x >= 1 && y >= 1 && x < width - 2 + width % 2 && y < height - 2 + height % 2;
+    }
+
+    /**
+     * Same as illuminate, spreading the light of the sources in parallel on the common fork-join pool
+     * @param g grid, where 0s are walls and 1s are walkable tiles
+     * @param sources list of LightSources
+     * @param baselight Base level of light with no sources
+     * @return grid representing the light level on every tile of the original grid, equal to the one of illuminate
+     */
+    public static DungeonGrid illuminateParallel(DungeonGrid g, List<? extends LightSource> sources, int baselight){
+        return illuminateParallel(g, sources, baselight, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Same as illuminate, spreading the light of the sources in parallel on a fork-join pool.
+     * The light of every source is computed on its own window, then the windows are merged keeping the maximum,
+     * split in bands of rows. The result is the same as the one of illuminate whatever the number of threads: when a
+     * source is darker than the light already on its tile and a later source could be blocked by it, the merged windows
+     * can't give that result and the light is computed one source after another instead.
+     * @param g grid, where 0s are walls and 1s are walkable tiles
+     * @param sources list of LightSources
+     * @param baselight Base level of light with no sources
+     * @param pool pool where the work is done
+     * @return grid representing the light level on every tile of the original grid, equal to the one of illuminate
+     */
+    public static DungeonGrid illuminateParallel(DungeonGrid g, List<? extends LightSource> sources, int baselight, ForkJoinPool pool){
+
+        //Only the sources inside the usable boundaries give light, in the same order as in the list
+        int n = 0;
+        int[] xs = new int[sources.size()], ys = new int[sources.size()], intensities = new int[sources.size()];
+        for(LightSource ls:sources){
+            if(g.inBounds(ls.getX(), ls.getY())) {
+                xs[n] = ls.getX();
+                ys[n] = ls.getY();
+                intensities[n] = ls.getIntensity();
+                n++;
+            }
         }
-        if (t[i][j+1] == 0 && tlight[i][j+1] < light) {
-            tlight[i][j+1] = light;
+
+        LightPatch[] patches = new LightPatch[n];
+        pool.invoke(new FootprintTask(g, xs, ys, intensities, baselight, patches, 0, n));
+
+        DungeonGrid light = new DungeonGrid(g.getWidth(), g.getHeight());
+        pool.invoke(new MergeTask(light, patches, baselight, -1, g.getHeight() + 1));
+
+        if(!resolveSources(light, patches, xs, ys, intensities, n, baselight)){
+            return illuminate(g, sources, baselight);
         }
-        if (t[i][j-1] == 0 && tlight[i][j-1] < light) {
-            tlight[i][j-1] = light;
+        return(light);
+    }
+
+    /**
+     * Fixes the tiles of the sources after merging their patches.
+     * The tile of a source is set to its intensity even if it was brighter, so it can end darker than the maximum of the patches.
+     * The light of a later source reaching that tile then depends on the order of the sources: if it could be blocked by
+     * the darker tile the result can't be known from the patches alone.
+     * @param light light grid, with the patches merged
+     * @param patches patches of the sources, in order, covering at least the tile of their source and the tiles they light
+     * @param xs x positions of the sources
+     * @param ys y positions of the sources
+     * @param intensities intensities of the sources
+     * @param n number of sources
+     * @param baselight Base level of light with no sources
+     * @return false if the light of the sources depends on their order, and has to be computed one source after another
+     */
+    static boolean resolveSources(DungeonGrid light, LightPatch[] patches, int[] xs, int[] ys, int[] intensities, int n, int baselight){
+        int[] values = new int[n];
+        int[] start = null, items = null;
+        int columns = 0;
+        for (int k = 0; k < n; k++) {
+            int x = xs[k], y = ys[k], intensity = intensities[k];
+
+            //If no patch is brighter than the source on its tile, the tile just takes its intensity
+            int merged = light.get(x, y);
+            if(merged <= intensity){
+                values[k] = intensity;
+                continue;
+            }
+
+            //Otherwise look at the patches covering the tile or next to it, found through buckets of BUCKET x BUCKET tiles
+            if(start == null){
+                columns = (light.getWidth() + 2) / BUCKET + 1;
+                int rows = (light.getHeight() + 2) / BUCKET + 1;
+                start = new int[columns * rows + 1];
+                for (int p = 0; p < n; p++) {
+                    LightPatch patch = patches[p];
+                    for (int j = bucket(patch.getY0() - 1); j <= bucket(patch.getY0() + patch.getHeight()); j++) {
+                        for (int i = bucket(patch.getX0() - 1); i <= bucket(patch.getX0() + patch.getWidth()); i++) {
+                            start[j * columns + i + 1]++;
+                        }
+                    }
+                }
+                for (int b = 1; b < start.length; b++) {
+                    start[b] += start[b - 1];
+                }
+                items = new int[start[start.length - 1]];
+                int[] next = Arrays.copyOf(start, start.length - 1);
+                for (int p = 0; p < n; p++) {
+                    LightPatch patch = patches[p];
+                    for (int j = bucket(patch.getY0() - 1); j <= bucket(patch.getY0() + patch.getHeight()); j++) {
+                        for (int i = bucket(patch.getX0() - 1); i <= bucket(patch.getX0() + patch.getWidth()); i++) {
+                            items[next[j * columns + i]++] = p;
+                        }
+                    }
+                }
+            }
+
+            //Only the last source on a tile decides its value
+            int b = bucket(y) * columns + bucket(x);
+            int before = baselight, after = Integer.MIN_VALUE;
+            boolean last = true, near = false;
+            for (int c = start[b]; c < start[b + 1] && last; c++) {
+                int p = items[c];
+                if(p == k){
+                    continue;
+                }
+                if(p > k && xs[p] == x && ys[p] == y){
+                    last = false;
+                }else if(patches[p].covers(x, y)){
+                    if(p < k){
+                        before = Math.max(before, patches[p].get(x, y));
+                    }else{
+                        after = Math.max(after, patches[p].get(x, y));
+                    }
+                }else if(p > k && patches[p].intersects(x - 1, y - 1, x + 2, y + 2)){
+                    //Patches can be cropped to the tiles at the base light or above, dropping the step below it that
+                    //could still reach a tile darker than the base light
+                    near = true;
+                }
+            }
+            if(!last){
+                values[k] = intensity;
+            }else if(before <= intensity){
+                values[k] = Math.max(intensity, after);
+            }else if(after <= intensity && !(near && intensity < baselight)){
+                values[k] = intensity;
+            }else{
+                return false;
+            }
+        }
+
+        //Written in order, so the last source on a tile is the one that stays
+        for (int k = 0; k < n; k++) {
+            light.set(xs[k], ys[k], values[k]);
         }
+        return true;
     }
 
     /**
-     * Given a position in the 2D matrix, checks if it is within its usable boundaries, which means that its not in its borders,
-     * the borders being placed in the higher odd number possible.
-     * @param t 2D matrix
-     * @param xpos x position
-     * @param ypos y position
-     * @return boolean answer
+     * @param position x or y position, from -2
+     * @return bucket of resolveSources holding the position
      */
-    private static boolean inBounds(int[][] t, int xpos, int ypos){
-        int sizex = t.length, sizey = t[0].length;
-        return (xpos>=1&&ypos>=1&&xpos<sizex-2+sizex%2&&ypos<sizey-2+sizey%2);
+    private static int bucket(int position){
+        return (position + 1) / BUCKET;
+    }
+
+    /**
+     * Computes the patches of a range of sources, splitting it in halves while it is big enough
+     */
+    private static class FootprintTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int THRESHOLD = 4;
+        private final DungeonGrid g;
+        private final int[] xs, ys, intensities;
+        private final int baselight;
+        private final LightPatch[] patches;
+        private final int from, to;
+
+        FootprintTask(DungeonGrid g, int[] xs, int[] ys, int[] intensities, int baselight, LightPatch[] patches, int from, int to) {
+            this.g = g;
+            this.xs = xs;
+            this.ys = ys;
+            this.intensities = intensities;
+            this.baselight = baselight;
+            this.patches = patches;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= THRESHOLD){
+                LightPropagator propagator = new LightPropagator();
+                for (int k = from; k < to; k++) {
+                    patches[k] = footprint(g, xs[k], ys[k], intensities[k], baselight, propagator);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new FootprintTask(g, xs, ys, intensities, baselight, patches, from, mid),
+                    new FootprintTask(g, xs, ys, intensities, baselight, patches, mid, to));
+        }
+    }
+
+    /**
+     * Fills a band of rows of the light grid with the base light and merges into it the patches reaching it
+     */
+    private static class MergeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int THRESHOLD = 64;
+        private final DungeonGrid light;
+        private final LightPatch[] patches;
+        private final int baselight;
+        private final int y0, y1;
+
+        MergeTask(DungeonGrid light, LightPatch[] patches, int baselight, int y0, int y1) {
+            this.light = light;
+            this.patches = patches;
+            this.baselight = baselight;
+            this.y0 = y0;
+            this.y1 = y1;
+        }
+
+        @Override
+        protected void compute() {
+            if(y1 - y0 <= THRESHOLD){
+                int x0 = -1, x1 = light.getWidth() + 1;
+                Arrays.fill(light.getCells(), light.index(x0, y0), light.index(x0, y1), baselight);
+                for (LightPatch patch : patches) {
+                    if(patch.intersects(x0, y0, x1, y1)){
+                        patch.maxInto(light, x0, y0, x1, y1);
+                    }
+                }
+                return;
+            }
+            int mid = (y0 + y1) >>> 1;
+            invokeAll(new MergeTask(light, patches, baselight, y0, mid),
+                    new MergeTask(light, patches, baselight, mid, y1));
+        }
+    }
+
+    /**
+     * Returns the light a single source adds to a grid, as if it was the only source, limited to the window its light can reach.
+     * Tiles of the window the light doesn't reach hold a value below the base light.
+     * @param g grid, where 0s are walls and 1s are walkable tiles
+     * @param x x position of the source, within the usable boundaries of the grid
+     * @param y y position of the source, within the usable boundaries of the grid
+     * @param intensity intensity of the source
+     * @param baselight Base level of light with no sources
+     * @return patch with the light of the source
+     */
+    public static LightPatch footprint(DungeonGrid g, int x, int y, int intensity, int baselight){
+        return footprint(g, x, y, intensity, baselight, new LightPropagator());
+    }
+
+    /**
+     * Same as footprint, reusing a propagator
+     * @param g grid, where 0s are walls and 1s are walkable tiles
+     * @param x x position of the source, within the usable boundaries of the grid
+     * @param y y position of the source, within the usable boundaries of the grid
+     * @param intensity intensity of the source
+     * @param baselight Base level of light with no sources
+     * @param propagator propagator used to spread the light
+     * @return patch with the light of the source
+     */
+    public static LightPatch footprint(DungeonGrid g, int x, int y, int intensity, int baselight, LightPropagator propagator){
+
+        //Light loses one level per tile and stops at the base light, walls get the light of the tile next to them
+        int radius = Math.max(intensity - baselight, 0) + 1;
+        int x0 = Math.max(x - radius, -1), y0 = Math.max(y - radius, -1);
+        int x1 = Math.min(x + radius, g.getWidth()), y1 = Math.min(y + radius, g.getHeight());
+        int width = x1 - x0 + 1, height = y1 - y0 + 1;
+
+        //Copy the window with a border of walls around it, so the propagation can run on it as on a whole grid
+        int stride = width + 2;
+        int[] t = new int[stride * (height + 2)];
+        int[] tlight = new int[t.length];
+        int[] cells = g.getCells();
+        for (int j = 0; j < height; j++) {
+            System.arraycopy(cells, g.index(x0, y0 + j), t, (j + 1) * stride + 1, width);
+        }
+        //Start one level below the base light, so the tiles the light doesn't reach stay below it and can be told apart
+        //from the ones it reaches at the base light. Light still stops at the same tiles, the step it gives past them
+        //stays below the base light too.
+        Arrays.fill(tlight, baselight - 1);
+        propagator.propagate(t, tlight, stride, (y - y0 + 1) * stride + x - x0 + 1, intensity);
+
+        int[] values = new int[width * height];
+        for (int j = 0; j < height; j++) {
+            System.arraycopy(tlight, (j + 1) * stride + 1, values, j * width, width);
+        }
+        return new LightPatch(x0, y0, width, height, values);
     }
 }
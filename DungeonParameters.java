@@ -0,0 +1,123 @@
+/**
+ * Configuration values of a dungeon, as taken by DungeonGenerator.generate
+ */
+public class DungeonParameters {
+    /**
+     * Random positions tried for every room wanted, unless told otherwise
+     */
+    public static final int DEFAULT_ATTEMPTS_PER_ROOM = 10;
+
+    private final int xsize, ysize;
+    private final int numberOfRooms, minRoomSize, maxRoomSize;
+    private final int trim;
+    private final boolean eraseColumns;
+    private final int expand;
+    private final int attemptsPerRoom;
+
+    /**
+     * @param xsize horizontal size of the dungeon
+     * @param ysize vertical size of the dungeon
+     * @param numberOfRooms numberOfRooms wanted in the dungeon
+     * @param minRoomSize minimum room width and height
+     * @param maxRoomSize maximum room width and height
+     * @param trim number of times we try to erase dead ends
+     * @param eraseColumns if we want lone walls to be erased or not
+     * @param expand number of times we break walls surrounded by 3 or more empty spaces
+     */
+    public DungeonParameters(int xsize, int ysize, int numberOfRooms, int minRoomSize, int maxRoomSize, int trim, boolean eraseColumns, int expand) {
+        this(xsize, ysize, numberOfRooms, minRoomSize, maxRoomSize, trim, eraseColumns, expand, DEFAULT_ATTEMPTS_PER_ROOM);
+    }
+
+    /**
+     * @param xsize horizontal size of the dungeon
+     * @param ysize vertical size of the dungeon
+     * @param numberOfRooms numberOfRooms wanted in the dungeon
+     * @param minRoomSize minimum room width and height
+     * @param maxRoomSize maximum room width and height
+     * @param trim number of times we try to erase dead ends
+     * @param eraseColumns if we want lone walls to be erased or not
+     * @param expand number of times we break walls surrounded by 3 or more empty spaces
+     * @param attemptsPerRoom random positions tried for every room wanted, more packs rooms closer when the dungeon is crowded
+     */
+    public DungeonParameters(int xsize, int ysize, int numberOfRooms, int minRoomSize, int maxRoomSize, int trim, boolean eraseColumns, int expand, int attemptsPerRoom) {
+        this.xsize = xsize;
+        this.ysize = ysize;
+        this.numberOfRooms = numberOfRooms;
+        this.minRoomSize = minRoomSize;
+        this.maxRoomSize = maxRoomSize;
+        this.trim = trim;
+        this.eraseColumns = eraseColumns;
+        this.expand = expand;
+        this.attemptsPerRoom = attemptsPerRoom;
+    }
+
+    public int getXsize() {
+        return xsize;
+    }
+
+    public int getYsize() {
+        return ysize;
+    }
+
+    public int getNumberOfRooms() {
+        return numberOfRooms;
+    }
+
+    public int getMinRoomSize() {
+        return minRoomSize;
+    }
+
+    public int getMaxRoomSize() {
+        return maxRoomSize;
+    }
+
+    public int getTrim() {
+        return trim;
+    }
+
+    public boolean isEraseColumns() {
+        return eraseColumns;
+    }
+
+    public int getExpand() {
+        return expand;
+    }
+
+    public int getAttemptsPerRoom() {
+        return attemptsPerRoom;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DungeonParameters)) {
+            return false;
+        }
+        DungeonParameters p = (DungeonParameters) o;
+        return xsize == p.xsize && ysize == p.ysize && numberOfRooms == p.numberOfRooms && minRoomSize == p.minRoomSize
+                && maxRoomSize == p.maxRoomSize && trim == p.trim && eraseColumns == p.eraseColumns && expand == p.expand
+                && attemptsPerRoom == p.attemptsPerRoom;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = xsize;
+        h = 31 * h + ysize;
+        h = 31 * h + numberOfRooms;
+        h = 31 * h + minRoomSize;
+        h = 31 * h + maxRoomSize;
+        h = 31 * h + trim;
+        h = 31 * h + (eraseColumns ? 1 : 0);
+        h = 31 * h + expand;
+        h = 31 * h + attemptsPerRoom;
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "DungeonParameters{" + xsize + "x" + ysize + ", rooms=" + numberOfRooms + " (" + minRoomSize + "-" + maxRoomSize + ")"
+                + ", attemptsPerRoom=" + attemptsPerRoom + ", trim=" + trim + ", eraseColumns=" + eraseColumns + ", expand=" + expand + "}";
+    }
+}
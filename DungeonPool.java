@@ -0,0 +1,386 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps dungeons generated ahead of time, a number of them for every configuration asked for, so a new level is
+ * handed out at once instead of being generated on the thread asking for it.
+ * Ready dungeons wait in lock-free queues as WalkableMasks. Taking one starts the generation of another in the
+ * background, as long as there are less than the maximum number of generations running and the ready and running
+ * ones fit in the memory allowed, so the pool never does more work than what is being taken out of it.
+ * When no dungeon is ready, one is generated on the thread asking for it, as DungeonGenerator would.
+ * Every dungeon has its own seed, drawn from the seed of the pool and the configuration, so a pool with the same seed
+ * gives the same set of dungeons, in an order that depends on which generations finish first.
+ */
+public class DungeonPool implements AutoCloseable {
+    /**
+     * Generations in the background of a configuration that can fail in a row before it stops being generated ahead of
+     * time, until keepReady is called for it again
+     */
+    public static final int MAX_FAILURES = 3;
+
+    private final long seed;
+    private final Executor executor;
+    private final ExecutorService owned;
+    private final int maxGenerating;
+    private final long maxBytes;
+    private final ConcurrentHashMap<DungeonParameters, Profile> profiles = new ConcurrentHashMap<DungeonParameters, Profile>();
+    private final AtomicInteger generating = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile RuntimeException lastFailure;
+    private final LatencyHistogram generationLatency = new LatencyHistogram();
+    private final LatencyHistogram takeLatency = new LatencyHistogram();
+    private volatile boolean closed;
+
+    /**
+     * Dungeons of one configuration
+     */
+    private static class Profile {
+        final DungeonParameters parameters;
+        final long bytesPerDungeon;
+        //Mask plus the grid and buffers of the generation, held until it finishes
+        final long bytesGenerating;
+        final ConcurrentLinkedQueue<WalkableMask> ready = new ConcurrentLinkedQueue<WalkableMask>();
+        //Dungeons ready plus the ones being generated
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicLong sequence = new AtomicLong();
+        final LatencyHistogram generationLatency = new LatencyHistogram();
+        //Generations in the background that failed in a row
+        final AtomicInteger failures = new AtomicInteger();
+        volatile int target;
+
+        Profile(DungeonParameters parameters) {
+            this.parameters = parameters;
+            long words = ((long) (parameters.getXsize() + 2) * (parameters.getYsize() + 2) + 63) >>> 6;
+            this.bytesPerDungeon = words * 8;
+            this.bytesGenerating = bytesPerDungeon + GenerationBuffers.peakBytes(parameters.getXsize(), parameters.getYsize());
+        }
+    }
+
+    /**
+     * Creates a pool generating on its own daemon threads, closed with the pool
+     * @param seed seed every dungeon seed is drawn from
+     * @param threads number of threads, and of generations running at the same time
+     * @param maxBytes memory allowed for the dungeons ready and being generated, counting the mask of every ready one
+     * and, for every one being generated, its grid and working buffers too. The working buffers kept between
+     * generations count as well, and are dropped when a generation needs the room. Must fit at least one generation.
+     */
+    public DungeonPool(long seed, int threads, long maxBytes) {
+        this(seed, Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "DungeonPool");
+            t.setDaemon(true);
+            return t;
+        }), threads, maxBytes, true);
+    }
+
+    /**
+     * Creates a pool generating on an executor that is not closed with the pool, for example a fork-join pool or a
+     * virtual thread per task executor
+     * @param seed seed every dungeon seed is drawn from
+     * @param executor executor running the generations
+     * @param maxGenerating maximum number of generations running at the same time
+     * @param maxBytes memory allowed for the dungeons ready and being generated, counting the mask of every ready one
+     * and, for every one being generated, its grid and working buffers too. The working buffers kept between
+     * generations count as well, and are dropped when a generation needs the room. Must fit at least one generation.
+     */
+    public DungeonPool(long seed, Executor executor, int maxGenerating, long maxBytes) {
+        this(seed, executor, maxGenerating, maxBytes, false);
+    }
+
+    private DungeonPool(long seed, Executor executor, int maxGenerating, long maxBytes, boolean owned) {
+        if(maxGenerating < 1){
+            throw new IllegalArgumentException("At least one generation must be allowed to run");
+        }
+        this.seed = seed;
+        this.executor = executor;
+        this.owned = owned ? (ExecutorService) executor : null;
+        this.maxGenerating = maxGenerating;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Keeps a number of dungeons of a configuration ready, starting to generate the missing ones
+     * @param p configuration of the dungeons
+     * @param count number of dungeons to keep ready, 0 to stop generating them ahead of time
+     * @throws IllegalArgumentException if dungeons are asked for and one generation of them doesn't fit in the memory
+     * allowed
+     */
+    public void keepReady(DungeonParameters p, int count){
+        Profile f = profile(p);
+        if(count > 0 && f.bytesGenerating > maxBytes){
+            throw new IllegalArgumentException("A generation of " + p.getXsize() + "x" + p.getYsize() + " takes "
+                    + f.bytesGenerating + " bytes, more than the " + maxBytes + " allowed");
+        }
+        f.target = Math.max(count, 0);
+        f.failures.set(0);
+        refillAll();
+    }
+
+    /**
+     * Takes a ready dungeon of a configuration, or generates one on this thread if none is ready
+     * @param p configuration of the dungeon
+     * @return walkable mask of the dungeon
+     */
+    public WalkableMask take(DungeonParameters p){
+        long start = System.nanoTime();
+        Profile f = profile(p);
+        WalkableMask m = pollReady(f);
+        if(m == null){
+            misses.incrementAndGet();
+            m = generate(f, nextSeed(f));
+        }
+        takeLatency.record(System.nanoTime() - start);
+        return m;
+    }
+
+    /**
+     * Takes a ready dungeon of a configuration, never generating on this thread
+     * @param p configuration of the dungeon
+     * @return walkable mask of the dungeon, or null if none is ready
+     */
+    public WalkableMask poll(DungeonParameters p){
+        long start = System.nanoTime();
+        WalkableMask m = pollReady(profile(p));
+        if(m != null){
+            takeLatency.record(System.nanoTime() - start);
+        }else{
+            misses.incrementAndGet();
+        }
+        return m;
+    }
+
+    /**
+     * Takes a ready dungeon, then starts the generations missing, so a pool whose refill was rejected before starts
+     * generating again on the next take or poll, hit or miss
+     */
+    private WalkableMask pollReady(Profile f){
+        WalkableMask m = f.ready.poll();
+        if(m != null){
+            hits.incrementAndGet();
+            f.pending.decrementAndGet();
+            bytes.addAndGet(-f.bytesPerDungeon);
+        }
+        try {
+            refillAll();
+        } catch (RejectedExecutionException e) {
+            //The dungeon, if any, is already taken: the refill is tried again on the next take or poll
+        }
+        return m;
+    }
+
+    /**
+     * @param p configuration of the dungeons
+     * @return number of dungeons of the configuration ready to be taken
+     */
+    public int getReady(DungeonParameters p){
+        Profile f = profiles.get(p);
+        return f == null ? 0 : f.ready.size();
+    }
+
+    /**
+     * @param p configuration of the dungeons
+     * @return time taken to generate every dungeon of the configuration, in the background or not
+     */
+    public LatencyHistogram getGenerationLatency(DungeonParameters p){
+        return profile(p).generationLatency;
+    }
+
+    /**
+     * @return time taken to generate every dungeon, in the background or not
+     */
+    public LatencyHistogram getGenerationLatency() {
+        return generationLatency;
+    }
+
+    /**
+     * @return time taken by take and poll to hand out a dungeon, generating it or not
+     */
+    public LatencyHistogram getTakeLatency() {
+        return takeLatency;
+    }
+
+    /**
+     * @return number of dungeons handed out ready
+     */
+    public long getHits(){
+        return hits.get();
+    }
+
+    /**
+     * @return number of times no dungeon was ready
+     */
+    public long getMisses(){
+        return misses.get();
+    }
+
+    /**
+     * @return number of generations in the background that threw an exception
+     */
+    public long getFailures(){
+        return failures.get();
+    }
+
+    /**
+     * @return exception thrown by the last generation in the background that failed, or null if none failed
+     */
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * @return memory counted for the dungeons ready and being generated, in bytes
+     */
+    public long getBytes(){
+        return bytes.get();
+    }
+
+    /**
+     * @return number of dungeons being generated in the background
+     */
+    public int getGenerating(){
+        return generating.get();
+    }
+
+    /**
+     * Stops generating ahead of time and forgets the ready dungeons. The threads of the pool are stopped if it made
+     * them. Dungeons can still be taken, being generated on the thread asking for them.
+     */
+    @Override
+    public void close(){
+        closed = true;
+        if(owned != null){
+            owned.shutdown();
+        }
+        for (Profile f : profiles.values()) {
+            while(pollReady(f) != null){
+                hits.decrementAndGet();
+            }
+        }
+    }
+
+    private Profile profile(DungeonParameters p){
+        Profile f = profiles.get(p);
+        if(f == null){
+            f = profiles.computeIfAbsent(p, Profile::new);
+        }
+        return f;
+    }
+
+    /**
+     * Starts generations in the background for every configuration missing dungeons, while the limits allow it
+     */
+    private void refillAll(){
+        if(closed){
+            return;
+        }
+        for (Profile f : profiles.values()) {
+            while(reserve(f)){
+                submit(f);
+            }
+        }
+    }
+
+    /**
+     * Takes a place for one more dungeon of a configuration, counting it as being generated
+     * @return false if the configuration has enough dungeons or a limit was reached
+     */
+    private boolean reserve(Profile f){
+        int n;
+        do {
+            n = f.pending.get();
+            if(closed || n >= f.target || f.failures.get() >= MAX_FAILURES){
+                return false;
+            }
+        } while(!f.pending.compareAndSet(n, n + 1));
+
+        int g;
+        do {
+            g = generating.get();
+            if(g >= maxGenerating){
+                f.pending.decrementAndGet();
+                return false;
+            }
+        } while(!generating.compareAndSet(g, g + 1));
+
+        long b;
+        do {
+            b = bytes.get();
+            if(b + f.bytesGenerating > maxBytes){
+                generating.decrementAndGet();
+                f.pending.decrementAndGet();
+                return false;
+            }
+        } while(!bytes.compareAndSet(b, b + f.bytesGenerating));
+
+        //Buffers kept between generations take memory too: as many as needed are dropped to stay within the cap
+        GenerationBuffers.trim(maxBytes - bytes.get());
+        return true;
+    }
+
+    private void submit(final Profile f){
+        final long s = nextSeed(f);
+        try {
+            executor.execute(() -> {
+                WalkableMask m = null;
+                try {
+                    m = generate(f, s);
+                    f.failures.set(0);
+                } catch (RuntimeException e) {
+                    failures.incrementAndGet();
+                    lastFailure = e;
+                    f.failures.incrementAndGet();
+                } finally {
+                    generating.decrementAndGet();
+                    if(m != null && !closed){
+                        //Only the mask is kept once the generation is done
+                        bytes.addAndGet(f.bytesPerDungeon - f.bytesGenerating);
+                        f.ready.offer(m);
+                    }else{
+                        f.pending.decrementAndGet();
+                        bytes.addAndGet(-f.bytesGenerating);
+                    }
+
+                    //The buffers of the generation went back to the pool, which must still fit in the cap
+                    GenerationBuffers.trim(maxBytes - bytes.get());
+
+                    //A place was freed, some configuration may have been waiting for it
+                    refillAll();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            generating.decrementAndGet();
+            f.pending.decrementAndGet();
+            bytes.addAndGet(-f.bytesGenerating);
+            if(!closed){
+                throw e;
+            }
+        }
+    }
+
+    private WalkableMask generate(Profile f, long s){
+        long start = System.nanoTime();
+        WalkableMask m = DungeonGenerator.generateMask(s, f.parameters);
+        long nanos = System.nanoTime() - start;
+        f.generationLatency.record(nanos);
+        generationLatency.record(nanos);
+        return m;
+    }
+
+    /**
+     * Draws the seed of the next dungeon of a configuration
+     */
+    private long nextSeed(Profile f){
+        long h = seed ^ (f.parameters.hashCode() * 0x9E3779B97F4A7C15L) ^ (f.sequence.getAndIncrement() * 0xC2B2AE3D27D4EB4FL);
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+}
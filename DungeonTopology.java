@@ -0,0 +1,502 @@
+import java.util.Arrays;
+
+/**
+ * Layout of a generated dungeon, kept from what the generation knows about it: the rooms it placed and the connectors
+ * it opened, plus what can be found from them in a few passes over the finished grid.
+ * Every walkable tile belongs to an area: the room it is in, or the corridor it is part of, corridors being the
+ * connected groups of walkable tiles outside the rooms. Areas that touch are linked in a graph.
+ * Also marks the chokepoints: tiles that split the dungeon in two when blocked, and areas that do the same.
+ * Every query about a tile is answered in constant time.
+ * Describes the grid as it was when built, it is not updated if the grid changes.
+ */
+public class DungeonTopology {
+    public static final int NONE = -1;
+
+    private final DungeonGrid grid;
+    private final int stride;
+    private final int[] areas;
+    private final int roomCount, areaCount;
+    private final int[] rooms;
+    private final int[] areaSizes;
+    private final int[] edgeStart, edges;
+    private final int[] components;
+    private final int componentCount;
+    private final long[] chokepoints;
+    private final int chokepointCount;
+    private final boolean[] cutAreas;
+    private final int[] connectors, doors;
+
+    /**
+     * Builds the topology of a grid, where rooms are given and corridors are found
+     * @param grid finished grid, where 0s are walls
+     * @param roomRects rooms as x, y, width and height, that don't overlap
+     * @param roomCount number of rooms
+     * @param opened index of every connector opened during the generation
+     * @param stack work stack
+     */
+    DungeonTopology(DungeonGrid grid, int[] roomRects, int roomCount, IntStack opened, IntStack stack) {
+        this.grid = grid;
+        this.stride = grid.getStride();
+        int[] t = grid.getCells();
+        int cells = t.length;
+        int[] step = {1, -1, stride, -stride};
+
+        //Rooms first, so room ids are area ids, then corridors
+        areas = new int[cells];
+        this.roomCount = roomCount;
+        rooms = Arrays.copyOf(roomRects, roomCount * 4);
+        areaSizes = labelAreas(t, step, stack);
+        areaCount = areaSizes.length;
+
+        edgeStart = new int[areaCount + 1];
+        edges = linkAreas();
+        components = new int[areaCount];
+        componentCount = findComponents(stack);
+
+        //Chokepoints, of tiles and of areas
+        chokepoints = new long[(cells + 63) >>> 6];
+        chokepointCount = tileArticulationPoints(t, step, chokepoints, stack);
+        cutAreas = new boolean[areaCount];
+        areaArticulationPoints(cutAreas, stack);
+
+        //Connectors still open after the dungeon was trimmed
+        IntStack found = new IntStack(Math.max(opened.size(), 4));
+        for (int k = 0; k < opened.size(); k++) {
+            if(t[opened.get(k)] > 0){
+                found.push(opened.get(k));
+            }
+        }
+        connectors = toArray(found);
+        doors = findDoors(step, found);
+    }
+
+    /**
+     * @param x x position
+     * @param y y position
+     * @return area of the tile, NONE on walls
+     */
+    public int getArea(int x, int y){
+        return areas[grid.index(x, y)];
+    }
+
+    /**
+     * @param x x position
+     * @param y y position
+     * @return room the tile is in, NONE if it is not in a room
+     */
+    public int getRoom(int x, int y){
+        int a = areas[grid.index(x, y)];
+        return a < roomCount ? a : NONE;
+    }
+
+    /**
+     * @param x x position
+     * @param y y position
+     * @return if the tile is part of a corridor
+     */
+    public boolean isCorridor(int x, int y){
+        return areas[grid.index(x, y)] >= roomCount;
+    }
+
+    /**
+     * @param x x position
+     * @param y y position
+     * @return group of tiles reachable from each other the tile belongs to, NONE on walls
+     */
+    public int getComponent(int x, int y){
+        int a = areas[grid.index(x, y)];
+        return a == NONE ? NONE : components[a];
+    }
+
+    /**
+     * @param x0 x position of the first tile
+     * @param y0 y position of the first tile
+     * @param x1 x position of the second tile
+     * @param y1 y position of the second tile
+     * @return if there is a walkable path between both tiles
+     */
+    public boolean isReachable(int x0, int y0, int x1, int y1){
+        int c = getComponent(x0, y0);
+        return c != NONE && c == getComponent(x1, y1);
+    }
+
+    /**
+     * @param x x position
+     * @param y y position
+     * @return if blocking the tile splits the walkable tiles around it in groups that can't reach each other
+     */
+    public boolean isChokepoint(int x, int y){
+        int idx = grid.index(x, y);
+        return (chokepoints[idx >>> 6] & (1L << idx)) != 0;
+    }
+
+    /**
+     * @return number of chokepoint tiles
+     */
+    public int getChokepointCount() {
+        return chokepointCount;
+    }
+
+    /**
+     * @param area area
+     * @return if removing the area splits the areas linked to it in groups that can't reach each other
+     */
+    public boolean isCutArea(int area){
+        return cutAreas[area];
+    }
+
+    /**
+     * @return number of rooms, whose areas go from 0 to getRoomCount - 1
+     */
+    public int getRoomCount() {
+        return roomCount;
+    }
+
+    public int getRoomX(int room){
+        return rooms[room * 4];
+    }
+
+    public int getRoomY(int room){
+        return rooms[room * 4 + 1];
+    }
+
+    public int getRoomWidth(int room){
+        return rooms[room * 4 + 2];
+    }
+
+    public int getRoomHeight(int room){
+        return rooms[room * 4 + 3];
+    }
+
+    /**
+     * @return number of areas, rooms first and then corridors
+     */
+    public int getAreaCount() {
+        return areaCount;
+    }
+
+    /**
+     * @param area area
+     * @return number of walkable tiles in the area
+     */
+    public int getAreaSize(int area){
+        return areaSizes[area];
+    }
+
+    /**
+     * @param area area
+     * @return number of areas it touches
+     */
+    public int getDegree(int area){
+        return edgeStart[area + 1] - edgeStart[area];
+    }
+
+    /**
+     * @param area area
+     * @param k number of the neighbour, from 0 to getDegree - 1
+     * @return area it touches
+     */
+    public int getNeighbour(int area, int k){
+        return edges[edgeStart[area] + k];
+    }
+
+    /**
+     * @return number of groups of tiles reachable from each other
+     */
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+    /**
+     * @return number of connectors opened by the generation that are still walkable
+     */
+    public int getConnectorCount(){
+        return connectors.length;
+    }
+
+    public int getConnectorX(int k){
+        return grid.xOf(connectors[k]);
+    }
+
+    public int getConnectorY(int k){
+        return grid.yOf(connectors[k]);
+    }
+
+    /**
+     * @return number of doors, corridor tiles next to a room
+     */
+    public int getDoorCount(){
+        return doors.length;
+    }
+
+    public int getDoorX(int k){
+        return grid.xOf(doors[k]);
+    }
+
+    public int getDoorY(int k){
+        return grid.yOf(doors[k]);
+    }
+
+    public DungeonGrid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Gives every walkable tile its area: the room it is in, or else a new corridor for every group of tiles
+     * @param t cells of the grid
+     * @param step offsets of the four neighbours of a tile
+     * @param stack work stack
+     * @return number of walkable tiles in every area
+     */
+    private int[] labelAreas(int[] t, int[] step, IntStack stack){
+        Arrays.fill(areas, NONE);
+        int[] sizes = new int[Math.max(roomCount * 2, 16)];
+        for (int r = 0; r < roomCount; r++) {
+            for (int j = rooms[r*4+1]; j < rooms[r*4+1] + rooms[r*4+3]; j++) {
+                int idx = grid.index(rooms[r*4], j);
+                for (int i = 0; i < rooms[r*4+2]; i++, idx++) {
+                    if(t[idx] > 0){
+                        areas[idx] = r;
+                        sizes[r]++;
+                    }
+                }
+            }
+        }
+
+        int count = roomCount;
+        for (int idx = 0; idx < t.length; idx++) {
+            if(t[idx] > 0 && areas[idx] == NONE){
+                if(count == sizes.length){
+                    sizes = Arrays.copyOf(sizes, count * 2);
+                }
+                areas[idx] = count;
+                stack.clear();
+                stack.push(idx);
+                while(!stack.isEmpty()){
+                    int p = stack.pop();
+                    sizes[count]++;
+                    for (int k = 0; k < 4; k++) {
+                        int n = p + step[k];
+                        if(t[n] > 0 && areas[n] == NONE){
+                            areas[n] = count;
+                            stack.push(n);
+                        }
+                    }
+                }
+                count++;
+            }
+        }
+        return Arrays.copyOf(sizes, count);
+    }
+
+    /**
+     * Links the areas that touch, filling edgeStart.
+     * Borders repeat the same two areas tile after tile, so only a link different from the last one found for the
+     * area is kept, and few are left to sort.
+     * @return areas linked to every area, from edgeStart[area] to edgeStart[area + 1]
+     */
+    private int[] linkAreas(){
+        long[] pairs = new long[64];
+        int pairCount = 0;
+        int[] last = new int[areaCount];
+        Arrays.fill(last, NONE);
+        for (int idx = 0; idx < areas.length - stride; idx++) {
+            int a = areas[idx];
+            if(a == NONE){
+                continue;
+            }
+            for (int k = 0; k < 2; k++) {
+                int b = areas[idx + (k == 0 ? 1 : stride)];
+                if(b != NONE && b != a && last[a] != b){
+                    last[a] = b;
+                    if(pairCount + 2 > pairs.length){
+                        pairs = Arrays.copyOf(pairs, pairs.length * 2);
+                    }
+                    pairs[pairCount++] = (long) a << 32 | b;
+                    pairs[pairCount++] = (long) b << 32 | a;
+                }
+            }
+        }
+        Arrays.sort(pairs, 0, pairCount);
+        int[] links = new int[pairCount];
+        int linkCount = 0;
+        for (int k = 0; k < pairCount; k++) {
+            if(k > 0 && pairs[k] == pairs[k - 1]){
+                continue;
+            }
+            edgeStart[(int) (pairs[k] >>> 32) + 1]++;
+            links[linkCount++] = (int) pairs[k];
+        }
+        for (int a = 0; a < areaCount; a++) {
+            edgeStart[a + 1] += edgeStart[a];
+        }
+        return Arrays.copyOf(links, linkCount);
+    }
+
+    /**
+     * Numbers the groups of areas reachable from each other, filling components
+     * @param stack work stack
+     * @return number of groups
+     */
+    private int findComponents(IntStack stack){
+        Arrays.fill(components, NONE);
+        int found = 0;
+        for (int a = 0; a < areaCount; a++) {
+            if(components[a] == NONE){
+                components[a] = found;
+                stack.clear();
+                stack.push(a);
+                while(!stack.isEmpty()){
+                    int p = stack.pop();
+                    for (int e = edgeStart[p]; e < edgeStart[p + 1]; e++) {
+                        if(components[edges[e]] == NONE){
+                            components[edges[e]] = found;
+                            stack.push(edges[e]);
+                        }
+                    }
+                }
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param step offsets of the four neighbours of a tile
+     * @param found stack to collect them in, emptied first
+     * @return index of every corridor tile next to a room
+     */
+    private int[] findDoors(int[] step, IntStack found){
+        found.clear();
+        for (int idx = 0; idx < areas.length; idx++) {
+            if(areas[idx] >= roomCount){
+                for (int k = 0; k < 4; k++) {
+                    int n = areas[idx + step[k]];
+                    if(n != NONE && n < roomCount){
+                        found.push(idx);
+                        break;
+                    }
+                }
+            }
+        }
+        return toArray(found);
+    }
+
+    /**
+     * Finds the tiles that are articulation points of the walkable tiles with Tarjan's algorithm, keeping the depth
+     * first search in a stack instead of recursion. The parent of a tile is the one under it in the stack.
+     * @param t cells of the grid
+     * @param step offsets of the four neighbours of a tile
+     * @param out bit set where articulation points are marked
+     * @param stack work stack
+     * @return number of articulation points
+     */
+    private static int tileArticulationPoints(int[] t, int[] step, long[] out, IntStack stack){
+        int cells = t.length;
+        int[] disc = new int[cells], low = new int[cells];
+        byte[] next = new byte[cells];
+        int time = 0, found = 0;
+        for (int root = 0; root < cells; root++) {
+            if(t[root] <= 0 || disc[root] != 0){
+                continue;
+            }
+            int rootChildren = 0;
+            disc[root] = low[root] = ++time;
+            stack.clear();
+            stack.push(root);
+            while(!stack.isEmpty()){
+                int v = stack.peek();
+                int parent = stack.size() > 1 ? stack.get(stack.size() - 2) : -1;
+                if(next[v] < 4){
+                    int n = v + step[next[v]++];
+                    if(t[n] <= 0){
+                        continue;
+                    }
+                    if(disc[n] == 0){
+                        disc[n] = low[n] = ++time;
+                        stack.push(n);
+                        if(v == root){
+                            rootChildren++;
+                        }
+                    }else if(n != parent && disc[n] < low[v]){
+                        low[v] = disc[n];
+                    }
+                    continue;
+                }
+
+                //Every neighbour seen: back to the parent
+                stack.pop();
+                if(parent >= 0){
+                    if(low[v] < low[parent]){
+                        low[parent] = low[v];
+                    }
+                    if(parent != root && low[v] >= disc[parent] && (out[parent >>> 6] & (1L << parent)) == 0){
+                        out[parent >>> 6] |= 1L << parent;
+                        found++;
+                    }
+                }
+            }
+            if(rootChildren > 1){
+                out[root >>> 6] |= 1L << root;
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Same as tileArticulationPoints, for the graph of areas
+     * @param out marks the areas that are articulation points
+     * @param stack work stack
+     */
+    private void areaArticulationPoints(boolean[] out, IntStack stack){
+        int[] disc = new int[areaCount], low = new int[areaCount], next = new int[areaCount];
+        int time = 0;
+        for (int root = 0; root < areaCount; root++) {
+            if(disc[root] != 0){
+                continue;
+            }
+            int rootChildren = 0;
+            disc[root] = low[root] = ++time;
+            stack.clear();
+            stack.push(root);
+            while(!stack.isEmpty()){
+                int v = stack.peek();
+                int parent = stack.size() > 1 ? stack.get(stack.size() - 2) : -1;
+                if(edgeStart[v] + next[v] < edgeStart[v + 1]){
+                    int n = edges[edgeStart[v] + next[v]++];
+                    if(disc[n] == 0){
+                        disc[n] = low[n] = ++time;
+                        stack.push(n);
+                        if(v == root){
+                            rootChildren++;
+                        }
+                    }else if(n != parent && disc[n] < low[v]){
+                        low[v] = disc[n];
+                    }
+                    continue;
+                }
+                stack.pop();
+                if(parent >= 0){
+                    if(low[v] < low[parent]){
+                        low[parent] = low[v];
+                    }
+                    if(parent != root && low[v] >= disc[parent]){
+                        out[parent] = true;
+                    }
+                }
+            }
+            if(rootChildren > 1){
+                out[root] = true;
+            }
+        }
+    }
+
+    private static int[] toArray(IntStack s){
+        int[] a = new int[s.size()];
+        for (int k = 0; k < a.length; k++) {
+            a[k] = s.get(k);
+        }
+        return a;
+    }
+}
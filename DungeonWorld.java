@@ -0,0 +1,357 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Dungeon world without fixed size, split in chunks that are generated independently and on demand.
+ * Every chunk is a normal dungeon made with DungeonGenerator, seeded from the world seed and its chunk coordinates,
+ * so a chunk is always the same no matter when or on which thread it is generated.
+ * Each edge shared by two chunks gets a seam corridor at a position both chunks can compute on their own,
+ * which keeps the whole world connected.
+ * Finished chunks are kept as WalkableMasks and can be unloaded and generated again at any time. At most a maximum
+ * number of chunks are kept: past it, the ones furthest from the chunk asked for are unloaded. Chunks whose generation
+ * failed are not kept, so they are generated again the next time they are asked for.
+ */
+public class DungeonWorld {
+    /**
+     * Maximum number of chunks loaded or being generated, if none is given
+     */
+    public static final int DEFAULT_MAX_LOADED_CHUNKS = 4096;
+
+    private final long worldSeed;
+    private final DungeonParameters chunkParameters;
+    private final ForkJoinPool pool;
+    private final int maxLoadedChunks;
+    private final Map<Long, CompletableFuture<WalkableMask>> chunks = new ConcurrentHashMap<Long, CompletableFuture<WalkableMask>>();
+
+    /**
+     * Creates a world generating its chunks on the common fork-join pool
+     * @param worldSeed seed of the world
+     * @param chunkParameters configuration of every chunk, its size being the size of the chunk
+     */
+    public DungeonWorld(long worldSeed, DungeonParameters chunkParameters) {
+        this(worldSeed, chunkParameters, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param worldSeed seed of the world
+     * @param chunkParameters configuration of every chunk, its size being the size of the chunk
+     * @param pool pool the chunks are generated on
+     */
+    public DungeonWorld(long worldSeed, DungeonParameters chunkParameters, ForkJoinPool pool) {
+        this(worldSeed, chunkParameters, pool, DEFAULT_MAX_LOADED_CHUNKS);
+    }
+
+    /**
+     * @param worldSeed seed of the world
+     * @param chunkParameters configuration of every chunk, its size being the size of the chunk
+     * @param pool pool the chunks are generated on
+     * @param maxLoadedChunks maximum number of chunks loaded or being generated
+     */
+    public DungeonWorld(long worldSeed, DungeonParameters chunkParameters, ForkJoinPool pool, int maxLoadedChunks) {
+        if(maxLoadedChunks < 1){
+            throw new IllegalArgumentException("At least one chunk must be allowed to be loaded");
+        }
+        this.worldSeed = worldSeed;
+        this.chunkParameters = chunkParameters;
+        this.pool = pool;
+        this.maxLoadedChunks = maxLoadedChunks;
+    }
+
+    /**
+     * Returns a chunk, generating it if it is not loaded yet. Blocks until it is ready.
+     * @param cx chunk x coordinate
+     * @param cy chunk y coordinate
+     * @return walkable mask of the chunk
+     */
+    public WalkableMask getChunk(int cx, int cy){
+        return requestChunk(cx, cy).join();
+    }
+
+    /**
+     * Starts generating a chunk in the pool if it is not loaded or being generated already. If that makes the world
+     * go over its maximum number of chunks, the ones furthest from this one are unloaded.
+     * @param cx chunk x coordinate
+     * @param cy chunk y coordinate
+     * @return future completed with the walkable mask of the chunk
+     */
+    public CompletableFuture<WalkableMask> requestChunk(final int cx, final int cy){
+        final long key = key(cx, cy);
+        CompletableFuture<WalkableMask> chunk = chunks.get(key);
+        if(chunk == null){
+            final CompletableFuture<WalkableMask> created = new CompletableFuture<WalkableMask>();
+            chunk = chunks.putIfAbsent(key, created);
+            if(chunk == null){
+                chunk = created;
+                try {
+                    CompletableFuture.supplyAsync(() -> generateChunk(worldSeed, chunkParameters, cx, cy).toMask(), pool)
+                            .whenComplete((m, e) -> {
+                                if(e != null){
+                                    //A failed chunk is forgotten first, so asking for it again tries again
+                                    chunks.remove(key, created);
+                                    created.completeExceptionally(e);
+                                }else{
+                                    created.complete(m);
+                                }
+                            });
+                } catch (RejectedExecutionException e) {
+                    chunks.remove(key, created);
+                    throw e;
+                }
+                if(chunks.size() > maxLoadedChunks){
+                    evictAround(cx, cy);
+                }
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Unloads the chunks furthest from a chunk until the world is within its maximum number of chunks
+     * @param cx chunk x coordinate
+     * @param cy chunk y coordinate
+     */
+    private void evictAround(int cx, int cy){
+        while(chunks.size() > maxLoadedChunks){
+            long furthest = key(cx, cy);
+            long distance = -1;
+            for (long k : chunks.keySet()) {
+                long d = Math.max(Math.abs((long) (int) (k >> 32) - cx), Math.abs((long) (int) k - cy));
+                if(d > distance){
+                    distance = d;
+                    furthest = k;
+                }
+            }
+            if(furthest == key(cx, cy)){
+                return;
+            }
+            chunks.remove(furthest);
+        }
+    }
+
+    /**
+     * Starts generating every chunk within a radius, in chunks, of the chunk containing a world position.
+     * Meant to be called as players move, so the chunks are ready before they get there.
+     * @param x world x position
+     * @param y world y position
+     * @param radius radius in chunks
+     */
+    public void prefetch(long x, long y, int radius){
+        int ccx = chunkX(x), ccy = chunkY(y);
+        for (int j = ccy - radius; j <= ccy + radius; j++) {
+            for (int i = ccx - radius; i <= ccx + radius; i++) {
+                requestChunk(i, j);
+            }
+        }
+    }
+
+    /**
+     * Unloads the chunks further than a radius, in chunks, from the chunk containing a world position
+     * @param x world x position
+     * @param y world y position
+     * @param radius radius in chunks
+     */
+    public void retainAround(long x, long y, int radius){
+        int ccx = chunkX(x), ccy = chunkY(y);
+        Iterator<Long> it = chunks.keySet().iterator();
+        while(it.hasNext()){
+            long k = it.next();
+            int cx = (int) (k >> 32), cy = (int) k;
+            if(Math.abs(cx - ccx) > radius || Math.abs(cy - ccy) > radius){
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Unloads a chunk. It will be generated again, identical, the next time it is needed.
+     * @param cx chunk x coordinate
+     * @param cy chunk y coordinate
+     */
+    public void unload(int cx, int cy){
+        chunks.remove(key(cx, cy));
+    }
+
+    /**
+     * @return number of chunks loaded or being generated, never more than the maximum
+     */
+    public int getLoadedChunks(){
+        return chunks.size();
+    }
+
+    /**
+     * Checks if a tile of the world is walkable, generating its chunk if needed
+     * @param x world x position
+     * @param y world y position
+     * @return if the tile is walkable
+     */
+    public boolean isWalkable(long x, long y){
+        int w = chunkParameters.getXsize(), h = chunkParameters.getYsize();
+        WalkableMask chunk = getChunk(chunkX(x), chunkY(y));
+        return chunk.isWalkable((int) Math.floorMod(x, (long) w), (int) Math.floorMod(y, (long) h));
+    }
+
+    public int chunkX(long x){
+        return (int) Math.floorDiv(x, (long) chunkParameters.getXsize());
+    }
+
+    public int chunkY(long y){
+        return (int) Math.floorDiv(y, (long) chunkParameters.getYsize());
+    }
+
+    /**
+     * Generates a part of the world into a grid stored outside the heap, for dungeons bigger than an int array can hold.
+     * Chunks are generated in the pool one by one, each written into the grid as soon as it is ready and then
+     * forgotten, so the heap only holds the chunks being generated. Chunks already loaded are not used nor kept.
+     * Blocks until the whole grid is filled.
+     * @param g grid to fill, any size, chunks at its right and bottom edges being cut
+     * @param cx chunk x coordinate of the chunk going at the top left corner of the grid
+     * @param cy chunk y coordinate of the chunk going at the top left corner of the grid
+     */
+    public void generateInto(final OffHeapGrid g, final int cx, final int cy){
+        final int w = chunkParameters.getXsize(), h = chunkParameters.getYsize();
+        int columns = (g.getWidth() + w - 1) / w, rows = (g.getHeight() + h - 1) / h;
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[columns * rows];
+        for (int j = 0; j < rows; j++) {
+            for (int i = 0; i < columns; i++) {
+                final int ci = i, cj = j;
+                tasks[j * columns + i] = CompletableFuture.runAsync(
+                        () -> g.write(generateChunk(worldSeed, chunkParameters, cx + ci, cy + cj), ci * w, cj * h), pool);
+            }
+        }
+        CompletableFuture.allOf(tasks).join();
+    }
+
+    public long getWorldSeed() {
+        return worldSeed;
+    }
+
+    public DungeonParameters getChunkParameters() {
+        return chunkParameters;
+    }
+
+    public int getMaxLoadedChunks() {
+        return maxLoadedChunks;
+    }
+
+    /**
+     * Generates one chunk of a world. Only depends on its arguments, so it can be called from any thread.
+     * @param worldSeed seed of the world
+     * @param p configuration of every chunk
+     * @param cx chunk x coordinate
+     * @param cy chunk y coordinate
+     * @return grid of 0s and 1s of the chunk, with its seam corridors opened
+     */
+    public static DungeonGrid generateChunk(long worldSeed, DungeonParameters p, int cx, int cy){
+        DungeonGrid g = DungeonGenerator.generateGrid(mix(worldSeed, cx, cy, 0), p);
+        int w = g.getWidth(), h = g.getHeight();
+
+        //West and east seams are shared with the chunks at the left and at the right
+        carveSeam(g, 0, seamPosition(worldSeed, cx, cy, 1, g.getLimitY()), 1, 0);
+        carveSeam(g, w - 1, seamPosition(worldSeed, cx + 1, cy, 1, g.getLimitY()), -1, 0);
+
+        //North and south seams are shared with the chunks above and below
+        carveSeam(g, seamPosition(worldSeed, cx, cy, 2, g.getLimitX()), 0, 0, 1);
+        carveSeam(g, seamPosition(worldSeed, cx, cy + 1, 2, g.getLimitX()), h - 1, 0, -1);
+        return g;
+    }
+
+    /**
+     * Opens tiles from the edge of a chunk inwards until reaching one that is already walkable. If the seam goes
+     * through the whole chunk without meeting one, it is joined to the nearest walkable tile.
+     * @param g grid of the chunk
+     * @param x x position of the edge tile
+     * @param y y position of the edge tile
+     * @param dx x direction to go inwards
+     * @param dy y direction to go inwards
+     */
+    private static void carveSeam(DungeonGrid g, int x, int y, int dx, int dy){
+        int[] t = g.getCells();
+        int idx = g.index(x, y), step = dx + dy * g.getStride();
+        int length = dx != 0 ? g.getWidth() : g.getHeight();
+        int k = 0;
+        for (; k < length && t[idx] == 0; k++) {
+            t[idx] = 1;
+            idx += step;
+        }
+        if(k == length){
+            joinSeam(g, g.index(x, y), step, length);
+        }
+    }
+
+    /**
+     * Opens the shortest path through the walls from a seam to the nearest walkable tile that is not part of it,
+     * found with a breadth-first search from every tile of the seam. Does nothing if the chunk has no walkable tile.
+     * @param g grid of the chunk
+     * @param start index of the edge tile of the seam
+     * @param step index offset from one tile of the seam to the next one
+     * @param length number of tiles of the seam
+     */
+    private static void joinSeam(DungeonGrid g, int start, int step, int length){
+        int[] t = g.getCells();
+        int[] offsets = g.getNeighborOffsets();
+        int[] from = new int[t.length];
+        int[] queue = new int[t.length];
+        Arrays.fill(from, -1);
+        int head = 0, tail = 0;
+        for (int k = 0, idx = start; k < length; k++, idx += step) {
+            from[idx] = idx;
+            queue[tail++] = idx;
+        }
+        while(head < tail){
+            int idx = queue[head++];
+            for (int o : offsets) {
+                int n = idx + o;
+                if(from[n] != -1 || !g.inBounds(g.xOf(n), g.yOf(n))){
+                    continue;
+                }
+                from[n] = idx;
+                if(t[n] != 0){
+                    //Open the walls between the tile found and the seam
+                    for (int p = idx; from[p] != p; p = from[p]) {
+                        t[p] = 1;
+                    }
+                    return;
+                }
+                queue[tail++] = n;
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the seam of an edge, an odd position within the usable boundaries of the chunk
+     * @param worldSeed seed of the world
+     * @param cx chunk x coordinate of the chunk at the right of, or below, the edge
+     * @param cy chunk y coordinate of the chunk at the right of, or below, the edge
+     * @param axis 1 for vertical edges, 2 for horizontal ones
+     * @param limit first position out of the usable boundaries
+     * @return position along the edge
+     */
+    private static int seamPosition(long worldSeed, int cx, int cy, int axis, int limit){
+        int odds = Math.max(limit / 2, 1);
+        return 1 + 2 * (int) Math.floorMod(mix(worldSeed, cx, cy, axis), (long) odds);
+    }
+
+    /**
+     * Mixes the world seed with chunk coordinates into a well distributed seed
+     * @param seed seed of the world
+     * @param cx chunk x coordinate
+     * @param cy chunk y coordinate
+     * @param salt different for every use of the same chunk coordinates
+     * @return mixed seed
+     */
+    private static long mix(long seed, int cx, int cy, int salt){
+        long h = seed ^ (cx * 0x9E3779B97F4A7C15L) ^ (cy * 0xC2B2AE3D27D4EB4FL) ^ (salt * 0x165667B19E3779F9L);
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
+    private static long key(int cx, int cy){
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+}
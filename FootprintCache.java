@@ -0,0 +1,198 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the light patches of sources between calls, so lights that don't move or come back to the same place are not
+ * spread again. Patches are kept for one version of one grid: when the grid changes every patch is dropped.
+ * The least recently used patches are dropped when the memory they take goes over a budget.
+ * Not safe to use from several threads at the same time.
+ */
+public class FootprintCache {
+    //Rough size of a patch, its key and its entry in the map, besides the light values
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final long budget;
+    private final LinkedHashMap<Key, LightPatch> patches = new LinkedHashMap<Key, LightPatch>(64, 0.75f, true);
+    private final LightPropagator propagator = new LightPropagator();
+    private final Key probe = new Key();
+    private DungeonGrid grid;
+    private int version;
+    private long size;
+    private long hits, misses, evictions;
+
+    /**
+     * Position, intensity and base light of a source, which with the grid decide its patch
+     */
+    private static final class Key {
+        int x, y, intensity, baselight;
+
+        Key() {
+        }
+
+        Key(Key k) {
+            this.x = k.x;
+            this.y = k.y;
+            this.intensity = k.intensity;
+            this.baselight = k.baselight;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return x == k.x && y == k.y && intensity == k.intensity && baselight == k.baselight;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = x;
+            h = 31 * h + y;
+            h = 31 * h + intensity;
+            return 31 * h + baselight;
+        }
+    }
+
+    /**
+     * @param budget maximum number of bytes taken by the patches kept
+     */
+    public FootprintCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Returns the patch of a source, computing it only if it is not kept already
+     * @param g grid, where 0s are walls and 1s are walkable tiles
+     * @param x x position of the source, within the usable boundaries of the grid
+     * @param y y position of the source, within the usable boundaries of the grid
+     * @param intensity intensity of the source
+     * @param baselight Base level of light with no sources
+     * @return patch with the light of the source, covering at least the tiles it lights and the tile of the source
+     */
+    public LightPatch footprint(DungeonGrid g, int x, int y, int intensity, int baselight){
+        if(g != grid || g.getVersion() != version){
+            clear();
+            grid = g;
+            version = g.getVersion();
+        }
+        probe.x = x;
+        probe.y = y;
+        probe.intensity = intensity;
+        probe.baselight = baselight;
+        LightPatch patch = patches.get(probe);
+        if(patch != null){
+            hits++;
+            return patch;
+        }
+        misses++;
+
+        //Sources darker than the base light light nothing, not even their own tile, so there is nothing to crop
+        patch = DungeonIlluminator.footprint(g, x, y, intensity, baselight, propagator);
+        if(intensity >= baselight){
+            patch = patch.crop(baselight);
+        }
+        long bytes = bytes(patch);
+        if(bytes > budget){
+            return patch;
+        }
+        patches.put(new Key(probe), patch);
+        size += bytes;
+        Iterator<Map.Entry<Key, LightPatch>> it = patches.entrySet().iterator();
+        while(size > budget){
+            size -= bytes(it.next().getValue());
+            it.remove();
+            evictions++;
+        }
+        return patch;
+    }
+
+    /**
+     * Illuminates a grid as DungeonIlluminator.illuminate does, taking the patches of the sources from the cache
+     * @param g grid, where 0s are walls and 1s are walkable tiles
+     * @param sources list of LightSources
+     * @param baselight Base level of light with no sources
+     * @return grid representing the light level on every tile of the original grid, equal to the one of illuminate
+     */
+    public DungeonGrid illuminate(DungeonGrid g, List<? extends LightSource> sources, int baselight){
+        int n = 0;
+        int[] xs = new int[sources.size()], ys = new int[sources.size()], intensities = new int[sources.size()];
+        LightPatch[] found = new LightPatch[sources.size()];
+        for(LightSource ls:sources){
+            if(g.inBounds(ls.getX(), ls.getY())) {
+                xs[n] = ls.getX();
+                ys[n] = ls.getY();
+                intensities[n] = ls.getIntensity();
+                found[n] = footprint(g, xs[n], ys[n], intensities[n], baselight);
+                n++;
+            }
+        }
+
+        DungeonGrid light = new DungeonGrid(g.getWidth(), g.getHeight());
+        light.fillAll(baselight);
+        for (int k = 0; k < n; k++) {
+            found[k].maxInto(light);
+        }
+        if(!DungeonIlluminator.resolveSources(light, found, xs, ys, intensities, n, baselight)){
+            return DungeonIlluminator.illuminate(g, sources, baselight);
+        }
+        return light;
+    }
+
+    /**
+     * Drops every patch kept
+     */
+    public void clear(){
+        patches.clear();
+        size = 0;
+    }
+
+    /**
+     * @return number of patches kept
+     */
+    public int getCount() {
+        return patches.size();
+    }
+
+    /**
+     * @return approximate number of bytes taken by the patches kept
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return number of patches found in the cache
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of patches that had to be computed
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of patches dropped to stay within the budget
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @param patch patch
+     * @return approximate number of bytes taken by the patch in the cache
+     */
+    private static long bytes(LightPatch patch){
+        return ENTRY_OVERHEAD + 4L * patch.getValues().length;
+    }
+}
@@ -0,0 +1,174 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Working arrays used while generating a dungeon, kept between generations so they are not allocated every time.
+ * Taken from a small shared pool and given back when the generation is done, so a worker thread keeps reusing the same
+ * few sets whatever kind of executor it belongs to (fork-join, platform or virtual threads).
+ * The pool keeps at most MAX_POOLED_BYTES: sets that would go over it, like the ones of very big dungeons, are left for
+ * the garbage collector instead of being kept for good.
+ */
+class GenerationBuffers {
+    /**
+     * Most memory kept by the sets waiting in the pool, in bytes
+     */
+    static final long MAX_POOLED_BYTES = 16L << 20;
+
+    private static final int MAX_POOLED = Runtime.getRuntime().availableProcessors() * 2;
+    private static final ConcurrentLinkedQueue<GenerationBuffers> POOL = new ConcurrentLinkedQueue<GenerationBuffers>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+    private static final AtomicLong POOLED_BYTES = new AtomicLong();
+
+    final IntStack stack = new IntStack(256);
+    final IntStack work = new IntStack(256);
+    final IntStack opened = new IntStack(64);
+    final RowBitboard board = new RowBitboard();
+    final RoomIndex rooms = new RoomIndex();
+    private DungeonGrid grid;
+    private int[] connectors = new int[48];
+    private int[] parent = new int[0];
+    private int[] rank = new int[0];
+    //Memory counted in POOLED_BYTES while the set waits in the pool
+    private long pooledBytes;
+
+    /**
+     * Takes a set of buffers from the pool, or creates a new one if the pool is empty
+     * @return buffers, to be given back with release
+     */
+    static GenerationBuffers acquire(){
+        GenerationBuffers b = POOL.poll();
+        if(b == null){
+            return new GenerationBuffers();
+        }
+        POOLED.decrementAndGet();
+        POOLED_BYTES.addAndGet(-b.pooledBytes);
+        return b;
+    }
+
+    /**
+     * Gives a set of buffers back to the pool. If the pool is full, or the set would make it keep more than
+     * MAX_POOLED_BYTES, they are left for the garbage collector.
+     * @param b buffers
+     */
+    static void release(GenerationBuffers b){
+        b.stack.clear();
+        b.work.clear();
+        b.opened.clear();
+        b.pooledBytes = b.bytes();
+        if(POOLED_BYTES.addAndGet(b.pooledBytes) > MAX_POOLED_BYTES){
+            POOLED_BYTES.addAndGet(-b.pooledBytes);
+            return;
+        }
+        if(POOLED.incrementAndGet() <= MAX_POOLED){
+            POOL.offer(b);
+        }else{
+            POOLED.decrementAndGet();
+            POOLED_BYTES.addAndGet(-b.pooledBytes);
+        }
+    }
+
+    /**
+     * @return memory kept by the sets waiting in the pool, in bytes
+     */
+    static long pooledBytes(){
+        return POOLED_BYTES.get();
+    }
+
+    /**
+     * Drops sets waiting in the pool until it keeps at most a given memory, for callers whose memory cap counts it
+     * @param maxBytes memory the pool can keep, in bytes
+     */
+    static void trim(long maxBytes){
+        while(POOLED_BYTES.get() > maxBytes){
+            GenerationBuffers b = POOL.poll();
+            if(b == null){
+                return;
+            }
+            POOLED.decrementAndGet();
+            POOLED_BYTES.addAndGet(-b.pooledBytes);
+        }
+    }
+
+    /**
+     * @return memory taken by the arrays of the set, in bytes
+     */
+    long bytes(){
+        long ints = stack.capacity() + work.capacity() + opened.capacity() + connectors.length + parent.length + rank.length;
+        if(grid != null){
+            ints += grid.getCells().length;
+        }
+        return ints * 4 + board.bytes() + rooms.bytes();
+    }
+
+    /**
+     * Most memory a generation of the given size can take in a set of buffers: the grid, the three rows of words of
+     * the bitboard, up to one connector of three ints every other tile, the disjoint-set forest of up to one region
+     * every fourth tile, and the work stacks, holding up to two ints every fourth tile each. Arrays that grow double
+     * their size, so twice the space is counted for them.
+     * @param width horizontal size
+     * @param height vertical size
+     * @return bytes
+     */
+    static long peakBytes(int width, int height){
+        long tiles = (long) (width + 2) * (height + 2);
+        long grid = tiles * 4;
+        long bitboard = 3 * (height + 2) * (long) ((width + 2 + 63) >>> 6) * 8;
+        long connectors = 2 * (tiles / 2) * 3 * 4;
+        long forest = 2 * (tiles / 4) * 4;
+        long stacks = 2 * 2 * (tiles / 4) * 2 * 4;
+        return grid + bitboard + connectors + forest + stacks;
+    }
+
+    /**
+     * Returns a grid full of walls of the given size, reusing the last one if it has the same size
+     * @param width horizontal size
+     * @param height vertical size
+     * @return the grid, only valid until these buffers are used for another generation
+     */
+    DungeonGrid grid(int width, int height){
+        if(grid == null || grid.getWidth() != width || grid.getHeight() != height){
+            grid = new DungeonGrid(width, height);
+        }else{
+            grid.fill(0);
+        }
+        return grid;
+    }
+
+    /**
+     * @return array used by RegionConnector to store connectors
+     */
+    int[] connectors(){
+        return connectors;
+    }
+
+    /**
+     * Keeps the connector array after RegionConnector had to make it bigger
+     * @param connectors new array
+     */
+    void setConnectors(int[] connectors){
+        this.connectors = connectors;
+    }
+
+    /**
+     * @param length minimum length
+     * @return parent array of the disjoint-set forest of RegionConnector
+     */
+    int[] parent(int length){
+        if(parent.length < length){
+            parent = new int[length];
+        }
+        return parent;
+    }
+
+    /**
+     * @param length minimum length
+     * @return rank array of the disjoint-set forest of RegionConnector
+     */
+    int[] rank(int length){
+        if(rank.length < length){
+            rank = new int[length];
+        }
+        return rank;
+    }
+}
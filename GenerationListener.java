@@ -0,0 +1,13 @@
+/**
+ * Receives the metrics of a generation as its phases finish. Given to DungeonGenerator.generateGrid,
+ * nothing is measured when no listener is given.
+ */
+public interface GenerationListener {
+
+    /**
+     * Called on the generating thread after every phase. The time spent here is not counted as part of any phase.
+     * @param phase phase that just finished
+     * @param metrics metrics of the generation so far, updated in place by the next phases
+     */
+    void phaseFinished(GenerationPhase phase, GenerationMetrics metrics);
+}
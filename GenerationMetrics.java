@@ -0,0 +1,143 @@
+/**
+ * Counters of a single generation, filled by DungeonGenerator when a GenerationListener is given.
+ */
+public class GenerationMetrics {
+    private static final GenerationPhase[] PHASES = GenerationPhase.values();
+
+    private final long[] nanos = new long[PHASES.length];
+    private final long[] tiles = new long[PHASES.length];
+    int roomsPlaced, roomAttempts;
+    int mazes;
+    int regions;
+    int connectors, connectorsOpened, extraConnectors;
+    int trimPasses, expandPasses;
+    int columnsErased;
+
+    /**
+     * Adds the time and tiles of a phase
+     * @param phase phase
+     * @param nanos wall time spent
+     * @param tiles tiles written
+     */
+    void add(GenerationPhase phase, long nanos, long tiles){
+        this.nanos[phase.ordinal()] += nanos;
+        this.tiles[phase.ordinal()] += tiles;
+    }
+
+    /**
+     * @param phase phase
+     * @return wall time spent in the phase, in nanoseconds
+     */
+    public long getNanos(GenerationPhase phase){
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * @param phase phase
+     * @return number of tiles changed by the phase, counting a tile again every time it is changed
+     */
+    public long getTiles(GenerationPhase phase){
+        return tiles[phase.ordinal()];
+    }
+
+    /**
+     * @return wall time spent in all phases so far, in nanoseconds
+     */
+    public long getTotalNanos(){
+        long total = 0;
+        for (long n : nanos) {
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * @return number of rooms placed
+     */
+    public int getRoomsPlaced() {
+        return roomsPlaced;
+    }
+
+    /**
+     * @return number of random positions tried to place the rooms
+     */
+    public int getRoomAttempts() {
+        return roomAttempts;
+    }
+
+    /**
+     * @return number of separate mazes carved between the rooms
+     */
+    public int getMazes() {
+        return mazes;
+    }
+
+    /**
+     * @return number of separate regions found by the flood fill, rooms and mazes
+     */
+    public int getRegions() {
+        return regions;
+    }
+
+    /**
+     * @return number of walls found separating two regions, each one looked at once when connecting them
+     */
+    public int getConnectors() {
+        return connectors;
+    }
+
+    /**
+     * @return number of connectors opened, joining regions or at random
+     */
+    public int getConnectorsOpened() {
+        return connectorsOpened;
+    }
+
+    /**
+     * @return number of connectors opened at random between regions that were already joined
+     */
+    public int getExtraConnectors() {
+        return extraConnectors;
+    }
+
+    /**
+     * @return number of trim passes made, the first one over the whole grid and the next ones only around the tiles
+     * trimmed by the one before, stopping once there are no dead ends left
+     */
+    public int getTrimPasses() {
+        return trimPasses;
+    }
+
+    /**
+     * @return number of passes made over the grid to expand, stopping once a pass changes nothing
+     */
+    public int getExpandPasses() {
+        return expandPasses;
+    }
+
+    /**
+     * @return number of lone walls erased
+     */
+    public int getColumnsErased() {
+        return columnsErased;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("GenerationMetrics{");
+        for (GenerationPhase phase : PHASES) {
+            sb.append(phase).append('=').append(getNanos(phase) / 1000).append("us/").append(getTiles(phase)).append(" tiles, ");
+        }
+        return sb.append("roomsPlaced=").append(roomsPlaced)
+                .append(", roomAttempts=").append(roomAttempts)
+                .append(", mazes=").append(mazes)
+                .append(", regions=").append(regions)
+                .append(", connectors=").append(connectors)
+                .append(", connectorsOpened=").append(connectorsOpened)
+                .append(", extraConnectors=").append(extraConnectors)
+                .append(", trimPasses=").append(trimPasses)
+                .append(", expandPasses=").append(expandPasses)
+                .append(", columnsErased=").append(columnsErased)
+                .append('}').toString();
+    }
+}
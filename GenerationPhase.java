@@ -0,0 +1,12 @@
+/**
+ * Phases of DungeonGenerator.generate, in the order they are run
+ */
+public enum GenerationPhase {
+    PLACE_ROOMS,
+    CREATE_MAZE,
+    FLOOD_FILL,
+    CONNECT_REGIONS,
+    TRIM,
+    ERASE_COLUMNS,
+    EXPAND
+}
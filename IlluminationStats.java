@@ -0,0 +1,101 @@
+/**
+ * Counters of DungeonIlluminator.illuminate, added up over every call they are given to
+ */
+public class IlluminationStats {
+    private long calls, sources, tilesVisited, distinctTiles, nanos;
+    private int maxTilesPerSource;
+
+    /**
+     * Adds the counters of one call
+     * @param sources number of sources spread
+     * @param tilesVisited walkable tiles handled, adding up every source
+     * @param maxTilesPerSource most walkable tiles handled by a single source
+     * @param distinctTiles different walkable tiles handled
+     * @param nanos wall time of the call
+     */
+    void add(int sources, long tilesVisited, int maxTilesPerSource, long distinctTiles, long nanos){
+        this.calls++;
+        this.sources += sources;
+        this.tilesVisited += tilesVisited;
+        this.maxTilesPerSource = Math.max(this.maxTilesPerSource, maxTilesPerSource);
+        this.distinctTiles += distinctTiles;
+        this.nanos += nanos;
+    }
+
+    /**
+     * Sets every counter back to 0
+     */
+    public void reset(){
+        calls = sources = tilesVisited = distinctTiles = nanos = 0;
+        maxTilesPerSource = 0;
+    }
+
+    /**
+     * @return number of calls counted
+     */
+    public long getCalls() {
+        return calls;
+    }
+
+    /**
+     * @return number of light sources spread, leaving out the ones out of the usable boundaries
+     */
+    public long getSources() {
+        return sources;
+    }
+
+    /**
+     * @return walkable tiles handled, counting a tile once per source reaching it
+     */
+    public long getTilesVisited() {
+        return tilesVisited;
+    }
+
+    /**
+     * @return different walkable tiles handled in each call, added up
+     */
+    public long getDistinctTiles() {
+        return distinctTiles;
+    }
+
+    /**
+     * @return tiles handled again because more than one source reached them
+     */
+    public long getRevisits() {
+        return tilesVisited - distinctTiles;
+    }
+
+    /**
+     * @return average number of tiles each source handled that an earlier one had already handled
+     */
+    public double getRevisitsPerSource() {
+        return sources == 0 ? 0 : (double) getRevisits() / sources;
+    }
+
+    /**
+     * @return most walkable tiles handled by a single source
+     */
+    public int getMaxTilesPerSource() {
+        return maxTilesPerSource;
+    }
+
+    /**
+     * @return wall time spent, in nanoseconds
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "IlluminationStats{" +
+                "calls=" + calls +
+                ", sources=" + sources +
+                ", tilesVisited=" + tilesVisited +
+                ", distinctTiles=" + distinctTiles +
+                ", revisitsPerSource=" + getRevisitsPerSource() +
+                ", maxTilesPerSource=" + maxTilesPerSource +
+                ", nanos=" + nanos +
+                '}';
+    }
+}
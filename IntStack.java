@@ -0,0 +1,60 @@
+/**
+ * Growable stack of primitive ints, used as work list by the iterative algorithms so they don't need recursion or boxing.
+ * Meant to be reused: clear() keeps the allocated storage.
+ */
+public class IntStack {
+    private int[] values;
+    private int size;
+
+    /**
+     * Creates an empty stack
+     * @param capacity initial capacity
+     */
+    public IntStack(int capacity) {
+        values = new int[Math.max(capacity, 4)];
+    }
+
+    public void push(int v){
+        if(size == values.length){
+            int[] aux = new int[values.length*2];
+            System.arraycopy(values, 0, aux, 0, size);
+            values = aux;
+        }
+        values[size++] = v;
+    }
+
+    public int pop(){
+        return values[--size];
+    }
+
+    public int peek(){
+        return values[size-1];
+    }
+
+    /**
+     * @param i position, from 0 for the first value pushed to size - 1
+     * @return value at that position
+     */
+    public int get(int i){
+        return values[i];
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public void clear(){
+        size = 0;
+    }
+
+    /**
+     * @return number of values the stack can hold before growing
+     */
+    int capacity(){
+        return values.length;
+    }
+}
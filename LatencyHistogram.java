@@ -0,0 +1,124 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds that any number of threads can record into without locking.
+ * Every power of two is split in 8 buckets, so a percentile is never more than 12.5% above the real value, with
+ * under 500 buckets for anything from a nanosecond to centuries.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a duration
+     * @param nanos duration in nanoseconds, negative ones are taken as 0
+     */
+    public void record(long nanos){
+        if(nanos < 0){
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucket(nanos));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        long m = max.get();
+        while(nanos > m && !max.compareAndSet(m, nanos)){
+            m = max.get();
+        }
+    }
+
+    /**
+     * @return number of durations recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return longest duration recorded, in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return mean of the durations recorded, in nanoseconds, or 0 if there are none
+     */
+    public double getMean(){
+        long n = count.get();
+        return n == 0 ? 0 : (double) total.get() / n;
+    }
+
+    /**
+     * Returns the duration under which a given part of the recorded ones are. Read while other threads record, it
+     * may miss the latest ones.
+     * @param percentile from 0 to 100
+     * @return highest duration of the bucket holding the percentile, in nanoseconds, never above the longest one
+     */
+    public long getPercentile(double percentile){
+        long n = 0;
+        for (int k = 0; k < BUCKETS; k++) {
+            n += counts.get(k);
+        }
+        if(n == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * Math.min(Math.max(percentile, 0), 100) / 100));
+        long seen = 0;
+        for (int k = 0; k < BUCKETS; k++) {
+            seen += counts.get(k);
+            if(seen >= rank){
+                return Math.min(highest(k), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Forgets every duration recorded. Durations recorded at the same time may be half forgotten.
+     */
+    public void reset(){
+        for (int k = 0; k < BUCKETS; k++) {
+            counts.set(k, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Bucket of a duration: the first 16 hold one value each, then every power of two is split in 8
+     */
+    private static int bucket(long nanos){
+        if(nanos < 2 * SUB){
+            return (int) nanos;
+        }
+        int e = 63 - Long.numberOfLeadingZeros(nanos);
+        return (e - SUB_BITS + 1) * SUB + (int) ((nanos >>> (e - SUB_BITS)) & (SUB - 1));
+    }
+
+    /**
+     * Highest duration falling into a bucket
+     */
+    private static long highest(int bucket){
+        if(bucket < 2 * SUB){
+            return bucket;
+        }
+        int e = bucket / SUB + SUB_BITS - 1;
+        long width = 1L << (e - SUB_BITS);
+        return ((long) (SUB + (bucket & (SUB - 1))) << (e - SUB_BITS)) + width - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram{count=" + getCount() + ", mean=" + (long) getMean() / 1000 + "us"
+                + ", p50=" + getPercentile(50) / 1000 + "us, p99=" + getPercentile(99) / 1000 + "us"
+                + ", p999=" + getPercentile(99.9) / 1000 + "us, max=" + getMax() / 1000 + "us}";
+    }
+}
@@ -0,0 +1,178 @@
+import java.util.Arrays;
+
+/**
+ * Tiles of a light grid whose value is not the one it had at the last clear, as a bit per tile and as rectangles
+ * around them, so a renderer only redraws, or a server only sends, what changed.
+ * Keeps a copy of the light values as they were at the last clear, and only compares the windows it is told may
+ * have changed. Bits are in the same padded layout as WalkableMask. Rectangles that overlap or touch are merged, so
+ * no tile is in two of them, and may hold tiles that changed and went back to their old value.
+ * Filled by LightMap with the window of every source it lights again.
+ */
+public class LightChanges {
+    private final DungeonGrid light;
+    private final int width, height, stride;
+    private final int[] previous;
+    private final long[] bits;
+    private int[] rects = new int[32];
+    private int rectCount, count;
+
+    /**
+     * Starts tracking the changes of a light grid, from the values it has now
+     * @param light light grid
+     */
+    public LightChanges(DungeonGrid light) {
+        this.light = light;
+        this.width = light.getWidth();
+        this.height = light.getHeight();
+        this.stride = light.getStride();
+        this.previous = light.getCells().clone();
+        this.bits = new long[(previous.length + 63) >>> 6];
+    }
+
+    /**
+     * Compares a window of the light grid with the values it had at the last clear, marking the tiles that are
+     * different and adding a rectangle around them
+     * @param x0 first x position of the window
+     * @param y0 first y position of the window
+     * @param x1 last x position of the window plus one
+     * @param y1 last y position of the window plus one
+     */
+    void compare(int x0, int y0, int x1, int y1){
+        x0 = Math.max(x0, 0);
+        y0 = Math.max(y0, 0);
+        x1 = Math.min(x1, width);
+        y1 = Math.min(y1, height);
+        int[] t = light.getCells();
+        int sx = x1, sy = y1, ex = x0 - 1, ey = y0 - 1;
+        for (int j = y0; j < y1; j++) {
+            int idx = light.index(x0, j);
+            for (int i = x0; i < x1; i++, idx++) {
+                boolean marked = (bits[idx >>> 6] & (1L << idx)) != 0;
+                if(t[idx] != previous[idx]){
+                    if(!marked){
+                        bits[idx >>> 6] |= 1L << idx;
+                        count++;
+                    }
+                    sx = Math.min(sx, i);
+                    ex = Math.max(ex, i);
+                    sy = Math.min(sy, j);
+                    ey = Math.max(ey, j);
+                }else if(marked){
+                    //Back to the value it had, it is not a change anymore
+                    bits[idx >>> 6] &= ~(1L << idx);
+                    count--;
+                }
+            }
+        }
+        if(ex >= sx){
+            addRect(sx, sy, ex + 1, ey + 1);
+        }
+    }
+
+    /**
+     * Adds a rectangle, merging it with the ones it overlaps or touches
+     */
+    private void addRect(int x0, int y0, int x1, int y1){
+        for (int k = 0; k < rectCount; k++) {
+            int r = k * 4;
+            if(rects[r] <= x1 && x0 <= rects[r + 2] && rects[r + 1] <= y1 && y0 <= rects[r + 3]){
+                x0 = Math.min(x0, rects[r]);
+                y0 = Math.min(y0, rects[r + 1]);
+                x1 = Math.max(x1, rects[r + 2]);
+                y1 = Math.max(y1, rects[r + 3]);
+
+                //Take it out and look again, the bigger rectangle may touch the ones already checked
+                rectCount--;
+                System.arraycopy(rects, rectCount * 4, rects, r, 4);
+                k = -1;
+            }
+        }
+        if(rectCount * 4 == rects.length){
+            rects = Arrays.copyOf(rects, rects.length * 2);
+        }
+        rects[rectCount * 4] = x0;
+        rects[rectCount * 4 + 1] = y0;
+        rects[rectCount * 4 + 2] = x1;
+        rects[rectCount * 4 + 3] = y1;
+        rectCount++;
+    }
+
+    /**
+     * Takes the current values as the ones to compare with, forgetting every change.
+     * Only goes through the rectangles, as every changed tile is in one.
+     */
+    public void clear(){
+        int[] t = light.getCells();
+        for (int k = 0; k < rectCount; k++) {
+            int r = k * 4;
+            for (int j = rects[r + 1]; j < rects[r + 3]; j++) {
+                int from = light.index(rects[r], j), to = light.index(rects[r + 2], j);
+                System.arraycopy(t, from, previous, from, to - from);
+                for (int idx = from; idx < to; idx++) {
+                    bits[idx >>> 6] &= ~(1L << idx);
+                }
+            }
+        }
+        rectCount = 0;
+        count = 0;
+    }
+
+    /**
+     * @param x x position
+     * @param y y position
+     * @return if the light of the tile changed
+     */
+    public boolean isChanged(int x, int y){
+        int idx = (y + 1) * stride + x + 1;
+        return (bits[idx >>> 6] & (1L << idx)) != 0;
+    }
+
+    /**
+     * @return number of tiles whose light changed
+     */
+    public int getChangedCount() {
+        return count;
+    }
+
+    /**
+     * @return if no tile changed
+     */
+    public boolean isEmpty(){
+        return count == 0;
+    }
+
+    /**
+     * @return number of rectangles around the changed tiles
+     */
+    public int getRectangleCount() {
+        return rectCount;
+    }
+
+    public int getRectangleX(int k){
+        return rects[k * 4];
+    }
+
+    public int getRectangleY(int k){
+        return rects[k * 4 + 1];
+    }
+
+    public int getRectangleWidth(int k){
+        return rects[k * 4 + 2] - rects[k * 4];
+    }
+
+    public int getRectangleHeight(int k){
+        return rects[k * 4 + 3] - rects[k * 4 + 1];
+    }
+
+    /**
+     * Bits of the changed tiles, in the same padded layout as WalkableMask. Kept up to date, must not be modified.
+     * @return bits
+     */
+    public long[] getBits() {
+        return bits;
+    }
+
+    public DungeonGrid getLight() {
+        return light;
+    }
+}
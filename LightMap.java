@@ -0,0 +1,382 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Light values of a grid that are kept up to date as light sources are added, moved, changed or removed.
+ * Keeps the patch of light of every source, so when one source changes only the window around its old and new
+ * positions is lit again, merging the patches of the sources that reach it. The cost of a change depends on the
+ * intensity of the source, not on the size of the grid or the number of sources: patches are put in buckets of
+ * CELL_SIZE x CELL_SIZE tiles by their window, so only the ones in the buckets of a window are looked at, and sources
+ * tell the light map when their setters are called, so update only goes through the ones that changed.
+ * Each tile holds the maximum between the base light and the light of every source reaching it, so unlike
+ * DungeonIlluminator.illuminate the result doesn't depend on the order of the sources.
+ * Can also keep track of the tiles whose light changed, comparing only the windows it lights again, so a renderer
+ * doesn't have to compare the whole light grid with the one of the last frame.
+ * Not safe to use from several threads at the same time, nor are its sources while they are in it. Sources keep a
+ * reference to the light map until they are removed or it is cleared.
+ */
+public class LightMap {
+    /**
+     * Width and height of the buckets the patches are put in, in tiles
+     */
+    public static final int CELL_SIZE = 16;
+
+    private final DungeonGrid grid;
+    private final int baselight;
+    private final DungeonGrid light;
+    private final Map<LightSource, Entry> entries = new IdentityHashMap<LightSource, Entry>();
+    private final LightPropagator propagator = new LightPropagator();
+    private final LightChanges changes;
+    private final int columns, rows;
+    private final Entry[][] cells;
+    private final int[] counts;
+    //Sources whose setters were called since the last update
+    private final List<Entry> dirty = new ArrayList<Entry>();
+    private int visit;
+
+    /**
+     * Patch of a source, with the values of the source it was computed with
+     */
+    private static class Entry {
+        final LightSource source;
+        int x, y, intensity;
+        LightPatch patch;
+        //Buckets the patch is in, from the first to the last one in each direction
+        int cx0, cy0, cx1, cy1;
+        boolean dirty;
+        //Last relight that looked at the patch, so patches in many buckets are merged once
+        int visit;
+
+        Entry(LightSource source) {
+            this.source = source;
+        }
+    }
+
+    /**
+     * Creates a light map with no sources
+     * @param grid grid, where 0s are walls and 1s are walkable tiles
+     * @param baselight Base level of light with no sources
+     */
+    public LightMap(DungeonGrid grid, int baselight) {
+        this(grid, baselight, false);
+    }
+
+    /**
+     * Creates a light map with no sources
+     * @param grid grid, where 0s are walls and 1s are walkable tiles
+     * @param baselight Base level of light with no sources
+     * @param trackChanges if the tiles whose light changes have to be kept, see getChanges
+     */
+    public LightMap(DungeonGrid grid, int baselight, boolean trackChanges) {
+        this.grid = grid;
+        this.baselight = baselight;
+        this.light = new DungeonGrid(grid.getWidth(), grid.getHeight());
+        this.light.fillAll(baselight);
+        this.changes = trackChanges ? new LightChanges(light) : null;
+        this.columns = (grid.getWidth() + 2) / CELL_SIZE + 1;
+        this.rows = (grid.getHeight() + 2) / CELL_SIZE + 1;
+        this.cells = new Entry[columns * rows][];
+        this.counts = new int[cells.length];
+    }
+
+    /**
+     * Adds a light source. Changes made to it later through its setters are picked up by update or updateSource.
+     * The source keeps a reference to the light map until it is removed.
+     * @param ls light source
+     */
+    public void addSource(LightSource ls){
+        if(entries.containsKey(ls)){
+            updateSource(ls);
+            return;
+        }
+        Entry e = new Entry(ls);
+        entries.put(ls, e);
+        ls.attach(this);
+        compute(ls, e);
+        if(e.patch != null){
+            e.patch.maxInto(light);
+            changed(e.patch);
+        }
+    }
+
+    /**
+     * Removes a light source, darkening the tiles only it was lighting
+     * @param ls light source
+     */
+    public void removeSource(LightSource ls){
+        Entry e = entries.remove(ls);
+        if(e == null){
+            return;
+        }
+        ls.detach(this);
+        delete(e);
+        if(e.patch != null){
+            relight(e.patch);
+        }
+    }
+
+    /**
+     * Lights again the area of a source after its position or intensity changed
+     * @param ls light source
+     */
+    public void updateSource(LightSource ls){
+        Entry e = entries.get(ls);
+        if(e == null){
+            addSource(ls);
+            return;
+        }
+        if(e.x == ls.getX() && e.y == ls.getY() && e.intensity == ls.getIntensity()){
+            return;
+        }
+        LightPatch old = e.patch;
+        compute(ls, e);
+        if(old != null){
+            relight(old);
+        }
+        if(e.patch != null){
+            relight(e.patch);
+        }
+    }
+
+    /**
+     * Lights again the area of the sources that changed through their setters since the last update.
+     * Meant to be called once per frame.
+     * @return number of sources that changed
+     */
+    public int update(){
+        int n = 0;
+        for (int k = 0; k < dirty.size(); k++) {
+            Entry e = dirty.get(k);
+            e.dirty = false;
+            LightSource ls = e.source;
+            //Skips the sources removed, or already lit again by updateSource
+            if(entries.get(ls) == e && (e.x != ls.getX() || e.y != ls.getY() || e.intensity != ls.getIntensity())){
+                updateSource(ls);
+                n++;
+            }
+        }
+        dirty.clear();
+        return n;
+    }
+
+    /**
+     * Called by a source of the light map when one of its setters is called
+     * @param ls light source
+     */
+    void sourceChanged(LightSource ls){
+        Entry e = entries.get(ls);
+        if(e != null && !e.dirty){
+            e.dirty = true;
+            dirty.add(e);
+        }
+    }
+
+    /**
+     * Removes every source, leaving the base light on every tile. To be called before dropping a light map whose sources
+     * are kept, like a torch carried to the next level, so they stop keeping it and telling it about their changes.
+     */
+    public void clear(){
+        for (LightSource ls : entries.keySet()) {
+            ls.detach(this);
+        }
+        entries.clear();
+        dirty.clear();
+        Arrays.fill(cells, null);
+        Arrays.fill(counts, 0);
+        light.fillAll(baselight);
+        if(changes != null){
+            changes.compare(0, 0, light.getWidth(), light.getHeight());
+        }
+    }
+
+    /**
+     * Computes again the light of every source, needed after walls of the grid change
+     */
+    public void rebuild(){
+        light.fillAll(baselight);
+        for (Map.Entry<LightSource, Entry> me : entries.entrySet()) {
+            Entry e = me.getValue();
+            compute(me.getKey(), e);
+            if(e.patch != null){
+                e.patch.maxInto(light);
+            }
+        }
+        if(changes != null){
+            changes.compare(0, 0, light.getWidth(), light.getHeight());
+        }
+    }
+
+    /**
+     * Tiles whose light changed since the last call to clearChanges, found while lighting again the windows of the
+     * sources that changed
+     * @return changes, or null if the light map was created without keeping them
+     */
+    public LightChanges getChanges(){
+        return changes;
+    }
+
+    /**
+     * Forgets the changes kept, once they were redrawn or sent. Meant to be called once per frame, after update.
+     */
+    public void clearChanges(){
+        if(changes != null){
+            changes.clear();
+        }
+    }
+
+    /**
+     * @param x x position
+     * @param y y position
+     * @return light level of the tile
+     */
+    public int getLight(int x, int y){
+        return light.get(x, y);
+    }
+
+    /**
+     * Light values of the grid. Kept up to date by the light map, must not be modified.
+     * @return light grid
+     */
+    public DungeonGrid getLightGrid(){
+        return light;
+    }
+
+    /**
+     * @return copy of the light values as a 2D matrix, as returned by DungeonIlluminator.illuminate
+     */
+    public int[][] toArray(){
+        return light.toArray();
+    }
+
+    public DungeonGrid getGrid() {
+        return grid;
+    }
+
+    public int getBaselight() {
+        return baselight;
+    }
+
+    /**
+     * Stores the current values of a source and computes its patch, null if it is out of the usable boundaries
+     * @param ls light source
+     * @param e entry of the source
+     */
+    private void compute(LightSource ls, Entry e){
+        delete(e);
+        e.x = ls.getX();
+        e.y = ls.getY();
+        e.intensity = ls.getIntensity();
+        if(grid.inBounds(e.x, e.y)){
+            e.patch = DungeonIlluminator.footprint(grid, e.x, e.y, e.intensity, baselight, propagator);
+        }else{
+            e.patch = null;
+        }
+        insert(e);
+    }
+
+    /**
+     * Puts the patch of a source in the buckets its window overlaps
+     * @param e entry of the source
+     */
+    private void insert(Entry e){
+        if(e.patch == null){
+            return;
+        }
+        LightPatch p = e.patch;
+        e.cx0 = cell(p.getX0(), columns);
+        e.cy0 = cell(p.getY0(), rows);
+        e.cx1 = cell(p.getX0() + p.getWidth() - 1, columns);
+        e.cy1 = cell(p.getY0() + p.getHeight() - 1, rows);
+        for (int cy = e.cy0; cy <= e.cy1; cy++) {
+            for (int cx = e.cx0; cx <= e.cx1; cx++) {
+                int c = cy * columns + cx;
+                Entry[] cell = cells[c];
+                if(cell == null){
+                    cell = cells[c] = new Entry[4];
+                }else if(counts[c] == cell.length){
+                    cell = cells[c] = Arrays.copyOf(cell, cell.length * 2);
+                }
+                cell[counts[c]++] = e;
+            }
+        }
+    }
+
+    /**
+     * Takes the patch of a source out of its buckets
+     * @param e entry of the source
+     */
+    private void delete(Entry e){
+        if(e.patch == null){
+            return;
+        }
+        for (int cy = e.cy0; cy <= e.cy1; cy++) {
+            for (int cx = e.cx0; cx <= e.cx1; cx++) {
+                int c = cy * columns + cx;
+                Entry[] cell = cells[c];
+                for (int k = 0; k < counts[c]; k++) {
+                    if(cell[k] == e){
+                        cell[k] = cell[--counts[c]];
+                        cell[counts[c]] = null;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param position x or y position
+     * @param limit number of buckets in that direction
+     * @return bucket of the position, the ones at the edges also taking the positions out of the grid
+     */
+    private static int cell(int position, int limit){
+        return Math.min(Math.max(position, 0) / CELL_SIZE, limit - 1);
+    }
+
+    /**
+     * Lights again the window of a patch from the base light and the patches of the sources reaching it
+     * @param area patch whose window has to be lit again
+     */
+    private void relight(LightPatch area){
+        int rx0 = area.getX0(), ry0 = area.getY0();
+        int rx1 = rx0 + area.getWidth(), ry1 = ry0 + area.getHeight();
+        int[] tlight = light.getCells();
+        for (int j = ry0; j < ry1; j++) {
+            int idx = light.index(rx0, j);
+            for (int i = rx0; i < rx1; i++, idx++) {
+                tlight[idx] = baselight;
+            }
+        }
+        visit++;
+        int cx1 = cell(rx1 - 1, columns), cy1 = cell(ry1 - 1, rows);
+        for (int cy = cell(ry0, rows); cy <= cy1; cy++) {
+            for (int cx = cell(rx0, columns); cx <= cx1; cx++) {
+                int c = cy * columns + cx;
+                Entry[] cell = cells[c];
+                for (int k = 0; k < counts[c]; k++) {
+                    Entry e = cell[k];
+                    if(e.visit != visit){
+                        e.visit = visit;
+                        if(e.patch.intersects(rx0, ry0, rx1, ry1)){
+                            e.patch.maxInto(light, rx0, ry0, rx1, ry1);
+                        }
+                    }
+                }
+            }
+        }
+        changed(area);
+    }
+
+    /**
+     * Compares the window of a patch with the light it had before, if changes are kept
+     * @param area patch whose window was lit again
+     */
+    private void changed(LightPatch area){
+        if(changes != null){
+            changes.compare(area.getX0(), area.getY0(), area.getX0() + area.getWidth(), area.getY0() + area.getHeight());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Light added by a single source, stored only for the window around it that the light can reach.
+ * Tiles of the window the light doesn't reach hold a value below the base light, so patches can be merged into
+ * a light grid filled with the base light by keeping the maximum of both values.
+ * Windows can start at -1 and end at the size of the grid, covering its border padding.
+ */
+public class LightPatch {
+    private final int x0, y0, width, height;
+    private final int[] values;
+
+    /**
+     * @param x0 x position of the first column of the window
+     * @param y0 y position of the first row of the window
+     * @param width width of the window
+     * @param height height of the window
+     * @param values light values of the window, row after row
+     */
+    public LightPatch(int x0, int y0, int width, int height, int[] values) {
+        this.x0 = x0;
+        this.y0 = y0;
+        this.width = width;
+        this.height = height;
+        this.values = values;
+    }
+
+    /**
+     * Keeps in every tile of the light grid covered by the patch the maximum between its value and the value of the patch
+     * @param light light grid
+     */
+    public void maxInto(DungeonGrid light){
+        maxInto(light, x0, y0, x0 + width, y0 + height);
+    }
+
+    /**
+     * Same as maxInto, only for the tiles inside a rectangle
+     * @param light light grid
+     * @param rx0 first x position of the rectangle
+     * @param ry0 first y position of the rectangle
+     * @param rx1 x position after the last one of the rectangle
+     * @param ry1 y position after the last one of the rectangle
+     */
+    public void maxInto(DungeonGrid light, int rx0, int ry0, int rx1, int ry1){
+        int sx = Math.max(rx0, x0), sy = Math.max(ry0, y0);
+        int ex = Math.min(rx1, x0 + width), ey = Math.min(ry1, y0 + height);
+        int[] tlight = light.getCells();
+        for (int j = sy; j < ey; j++) {
+            int idx = light.index(sx, j);
+            int p = (j - y0) * width + sx - x0;
+            for (int i = sx; i < ex; i++, idx++, p++) {
+                if(values[p] > tlight[idx]){
+                    tlight[idx] = values[p];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a patch with the same light limited to the tiles it reaches, which is usually much smaller than the window
+     * its intensity allows once walls are taken into account
+     * @param baselight Base level of light with no sources
+     * @return the cropped patch, or this one if it can't be made smaller
+     */
+    public LightPatch crop(int baselight){
+        int sx = width, sy = height, ex = -1, ey = -1;
+        for (int j = 0, p = 0; j < height; j++) {
+            for (int i = 0; i < width; i++, p++) {
+                if(values[p] >= baselight){
+                    sx = Math.min(sx, i);
+                    ex = Math.max(ex, i);
+                    sy = Math.min(sy, j);
+                    ey = Math.max(ey, j);
+                }
+            }
+        }
+        if(ex < 0){
+            return new LightPatch(x0, y0, 0, 0, new int[0]);
+        }
+        int w = ex - sx + 1, h = ey - sy + 1;
+        if(w == width && h == height){
+            return this;
+        }
+        int[] aux = new int[w * h];
+        for (int j = 0; j < h; j++) {
+            System.arraycopy(values, (sy + j) * width + sx, aux, j * w, w);
+        }
+        return new LightPatch(x0 + sx, y0 + sy, w, h, aux);
+    }
+
+    /**
+     * @param x x position
+     * @param y y position
+     * @return if the window of the patch covers the position
+     */
+    public boolean covers(int x, int y){
+        return x >= x0 && y >= y0 && x < x0 + width && y < y0 + height;
+    }
+
+    /**
+     * @param rx0 first x position of the rectangle
+     * @param ry0 first y position of the rectangle
+     * @param rx1 x position after the last one of the rectangle
+     * @param ry1 y position after the last one of the rectangle
+     * @return if the window of the patch and the rectangle have any tile in common
+     */
+    public boolean intersects(int rx0, int ry0, int rx1, int ry1){
+        return rx0 < x0 + width && x0 < rx1 && ry0 < y0 + height && y0 < ry1;
+    }
+
+    /**
+     * @param x x position, covered by the patch
+     * @param y y position, covered by the patch
+     * @return light value of the patch in that position
+     */
+    public int get(int x, int y){
+        return values[(y - y0) * width + x - x0];
+    }
+
+    public int getX0() {
+        return x0;
+    }
+
+    public int getY0() {
+        return y0;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Light values of the window, row after row. Must not be modified.
+     * @return the values
+     */
+    public int[] getValues() {
+        return values;
+    }
+}
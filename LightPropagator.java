@@ -0,0 +1,136 @@
+import java.util.Arrays;
+
+/**
+ * Spreads the light of a source through the walkable tiles of a grid, breadth first.
+ * Light loses one level per tile, so the queue always holds tiles of at most two consecutive levels and takes them out
+ * in decreasing order of light: every tile is handled once per source, at the highest level the source can give it.
+ * Gives the same values as the old recursive fill: a walkable tile takes the light of its neighbour minus one
+ * if that is not lower than what it already had, a wall takes the light of its brightest lit neighbour,
+ * and the tile of the source is set to its intensity.
+ * Keeps its queue and marks between calls, so one propagator should be reused, and used by one thread at a time.
+ */
+public class LightPropagator {
+    private int[] queue = new int[256];
+    private int[] stamps = new int[0];
+    private int stamp;
+    private int visited;
+
+    /**
+     * Spreads the light of a source into a light grid, on top of the light already in it
+     * @param g grid, where 0s are walls and 1s are walkable tiles
+     * @param light light grid of the same size
+     * @param x x position of the source
+     * @param y y position of the source
+     * @param intensity intensity of the source
+     * @return number of walkable tiles lit
+     */
+    public int propagate(DungeonGrid g, DungeonGrid light, int x, int y, int intensity){
+        return propagate(g.getCells(), light.getCells(), g.getStride(), g.index(x, y), intensity);
+    }
+
+    /**
+     * Spreads the light of a source on the flat arrays of a grid and its light values.
+     * Light never leaves the walkable tiles, so the arrays need a border of walls around the tiles it can reach.
+     * @param t cells of the grid
+     * @param tlight cells of the light values grid
+     * @param stride stride of both grids
+     * @param idx index of the source
+     * @param intensity intensity of the source
+     * @return number of walkable tiles lit
+     */
+    public int propagate(int[] t, int[] tlight, int stride, int idx, int intensity){
+        if(stamps.length < t.length){
+            stamps = new int[t.length];
+            stamp = 0;
+        }
+        if(++stamp == Integer.MAX_VALUE){
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+        int current = stamp;
+        int[] marks = stamps;
+        int[] q = queue;
+        int mask = q.length - 1;
+        int head = 0, tail = 0;
+        int count = 0;
+
+        tlight[idx] = intensity;
+        marks[idx] = current;
+        q[tail++ & mask] = idx;
+
+        while(head != tail){
+            int p = q[head++ & mask];
+            int light = tlight[p];
+            count++;
+            for (int k = 0; k < 4; k++) {
+                int n;
+                switch (k) {
+                    case 0: n = p + 1; break;
+                    case 1: n = p - 1; break;
+                    case 2: n = p + stride; break;
+                    default: n = p - stride; break;
+                }
+                int cell = t[n];
+                if(cell == 1){
+                    if(marks[n] != current && tlight[n] < light){
+                        tlight[n] = light - 1;
+                        marks[n] = current;
+                        if(tail - head == q.length){
+                            q = grow(q, head, tail);
+                            mask = q.length - 1;
+                            tail = tail - head;
+                            head = 0;
+                        }
+                        q[tail++ & mask] = n;
+                    }
+                }else if(cell == 0 && tlight[n] < light){
+                    tlight[n] = light;
+                }
+            }
+        }
+        queue = q;
+        visited += count;
+        return count;
+    }
+
+    /**
+     * @return mark of the last source spread, to count later the tiles handled after it with countHandledSince
+     */
+    int getStamp() {
+        return stamp;
+    }
+
+    /**
+     * Counts the different tiles handled by the sources spread after a given one. Goes through the whole grid.
+     * @param since value of getStamp before spreading the sources
+     * @return number of different tiles
+     */
+    int countHandledSince(int since){
+        int count = 0;
+        for (int mark : stamps) {
+            if(mark > since){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return total number of tiles handled by this propagator, for statistics
+     */
+    public int getVisited() {
+        return visited;
+    }
+
+    /**
+     * Doubles the size of the ring buffer, moving its content to the start
+     */
+    private static int[] grow(int[] q, int head, int tail){
+        int mask = q.length - 1;
+        int[] aux = new int[q.length * 2];
+        for (int k = head; k != tail; k++) {
+            aux[k - head] = q[k & mask];
+        }
+        return aux;
+    }
+}
@@ -1,9 +1,16 @@
+import java.util.Arrays;
+
 /**
  * Created by FerranRuiz on 07/02/2015.
+ * A source added to a LightMap keeps a reference to it, and its setters tell it the source changed: a source in a light
+ * map must only be used from the thread using the light map, and must be removed from it, or the light map cleared,
+ * when the light map is dropped and the source is not.
  */
 public class LightSource {
     int x, y;
     int intensity;
+    //Light maps the source is in, told when its setters are called
+    private LightMap[] maps;
 
     /**
      * Light source data, consisting on its position and its intensity
@@ -23,6 +30,7 @@ public class LightSource {
 
     public void setX(int x) {
         this.x = x;
+        changed();
     }
 
     public int getY() {
@@ -31,6 +39,7 @@ public class LightSource {
 
     public void setY(int y) {
         this.y = y;
+        changed();
     }
 
     public int getIntensity() {
@@ -39,5 +48,49 @@ public class LightSource {
 
     public void setIntensity(int intensity) {
         this.intensity = intensity;
+        changed();
+    }
+
+    /**
+     * Tells the light maps the source is in that it changed, so their next update lights it again
+     */
+    void changed(){
+        if(maps != null){
+            for (LightMap m : maps) {
+                m.sourceChanged(this);
+            }
+        }
+    }
+
+    /**
+     * @param m light map the source was added to
+     */
+    void attach(LightMap m){
+        if(maps == null){
+            maps = new LightMap[]{m};
+        }else{
+            maps = Arrays.copyOf(maps, maps.length + 1);
+            maps[maps.length - 1] = m;
+        }
+    }
+
+    /**
+     * @param m light map the source was removed from
+     */
+    void detach(LightMap m){
+        if(maps == null){
+            return;
+        }
+        for (int k = 0; k < maps.length; k++) {
+            if(maps[k] == m){
+                if(maps.length == 1){
+                    maps = null;
+                }else{
+                    maps[k] = maps[maps.length - 1];
+                    maps = Arrays.copyOf(maps, maps.length - 1);
+                }
+                return;
+            }
+        }
     }
 }
@@ -0,0 +1,344 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Light sources of a grid put in buckets of cellSize x cellSize tiles by their position, so the ones whose light can
+ * reach a window of the grid are found without looking at every source.
+ * Every bucket keeps the highest intensity of its sources, and buckets too far from the window for it are skipped.
+ * The highest intensity of all the sources, which bounds the buckets looked at, is kept in a heap as sources change,
+ * so moving or dimming sources never makes a query go through every bucket of the grid.
+ * Sources keep the order in which they were added, the order in which they are lit.
+ * The index keeps the position and intensity each source had when it was added: update must be called after moving a
+ * source or changing its intensity.
+ */
+public class LightSourceIndex {
+    private static final Comparator<Entry> ORDER = (a, b) -> Long.compare(a.order, b.order);
+
+    private final int cellSize, columns, rows;
+    private final Entry[][] cells;
+    private final int[] counts;
+    private final int[] maxIntensity;
+    private final boolean[] stale;
+    private final IdentityHashMap<LightSource, Entry> entries = new IdentityHashMap<LightSource, Entry>();
+    private long nextOrder;
+    //Intensities of the sources, and the ones of the sources since removed or changed, taken out of the top lazily
+    private final IntHeap intensities = new IntHeap(), removed = new IntHeap();
+    private Entry[] found = new Entry[16];
+
+    private static class Entry {
+        final LightSource source;
+        final long order;
+        int x, y, intensity;
+        int cell, slot;
+
+        Entry(LightSource source, long order) {
+            this.source = source;
+            this.order = order;
+        }
+    }
+
+    /**
+     * @param width horizontal size of the grid
+     * @param height vertical size of the grid
+     * @param cellSize width and height of the buckets, in tiles
+     */
+    public LightSourceIndex(int width, int height, int cellSize) {
+        if(cellSize < 1){
+            throw new IllegalArgumentException("Buckets must be at least one tile wide");
+        }
+        this.cellSize = cellSize;
+        this.columns = (width + 2) / cellSize + 1;
+        this.rows = (height + 2) / cellSize + 1;
+        this.cells = new Entry[columns * rows][];
+        this.counts = new int[cells.length];
+        this.maxIntensity = new int[cells.length];
+        this.stale = new boolean[cells.length];
+    }
+
+    /**
+     * Creates an index of a list of sources, in the order of the list
+     * @param g grid the sources are in
+     * @param sources sources
+     * @param cellSize width and height of the buckets, in tiles
+     */
+    public LightSourceIndex(DungeonGrid g, List<? extends LightSource> sources, int cellSize) {
+        this(g.getWidth(), g.getHeight(), cellSize);
+        for (LightSource ls : sources) {
+            add(ls);
+        }
+    }
+
+    /**
+     * Adds a source, lit after the ones already in the index. Does nothing if it is already in it.
+     * @param ls light source
+     */
+    public void add(LightSource ls){
+        if(entries.containsKey(ls)){
+            return;
+        }
+        Entry e = new Entry(ls, nextOrder++);
+        entries.put(ls, e);
+        insert(e);
+    }
+
+    /**
+     * Removes a source
+     * @param ls light source
+     * @return false if it was not in the index
+     */
+    public boolean remove(LightSource ls){
+        Entry e = entries.remove(ls);
+        if(e == null){
+            return false;
+        }
+        delete(e);
+        compact();
+        return true;
+    }
+
+    /**
+     * Takes the new position and intensity of a source, keeping its order
+     * @param ls light source, already in the index
+     */
+    public void update(LightSource ls){
+        Entry e = entries.get(ls);
+        if(e == null){
+            throw new IllegalArgumentException("Source not in the index");
+        }
+        if(e.x == ls.getX() && e.y == ls.getY()){
+            if(ls.getIntensity() != e.intensity){
+                forget(e.intensity);
+                intensities.push(ls.getIntensity());
+            }
+            if(ls.getIntensity() > e.intensity){
+                e.intensity = ls.getIntensity();
+                raise(e.cell, e.intensity);
+            }else if(ls.getIntensity() < e.intensity){
+                e.intensity = ls.getIntensity();
+                lower(e.cell);
+            }
+            compact();
+            return;
+        }
+        delete(e);
+        insert(e);
+        compact();
+    }
+
+    /**
+     * @return number of sources in the index
+     */
+    public int size(){
+        return entries.size();
+    }
+
+    /**
+     * Finds the sources whose light can reach a window, in the order they are lit. A source reaches the tiles up to
+     * its intensity minus the base light, plus the walls next to them, away from it.
+     * @param x0 first x position of the window
+     * @param y0 first y position of the window
+     * @param x1 last x position of the window plus one
+     * @param y1 last y position of the window plus one
+     * @param baselight Base level of light with no sources
+     * @param out list the sources are added to
+     * @return number of sources added
+     */
+    public int query(int x0, int y0, int x1, int y1, int baselight, List<? super LightSource> out){
+        int n = find(x0, y0, x1, y1, baselight);
+        for (int k = 0; k < n; k++) {
+            out.add(found[k].source);
+            found[k] = null;
+        }
+        return n;
+    }
+
+    /**
+     * Fills found with the sources reaching a window, sorted by order
+     * @return number of sources found
+     */
+    private int find(int x0, int y0, int x1, int y1, int baselight){
+        int reach = radius(maxAll(), baselight);
+        int ci0 = cell(x0 - reach, columns), ci1 = cell(x1 - 1 + reach, columns);
+        int cj0 = cell(y0 - reach, rows), cj1 = cell(y1 - 1 + reach, rows);
+        int n = 0;
+        for (int cj = cj0; cj <= cj1; cj++) {
+            //Distance from the rows of the bucket to the window, the buckets of the edges holding anything past them
+            int by0 = cj == 0 ? Integer.MIN_VALUE / 2 : cj * cellSize - 1;
+            int by1 = cj == rows - 1 ? Integer.MAX_VALUE / 2 : cj * cellSize + cellSize - 2;
+            int dy = Math.max(Math.max(y0 - by1, by0 - (y1 - 1)), 0);
+            for (int ci = ci0; ci <= ci1; ci++) {
+                int c = cj * columns + ci;
+                if(counts[c] == 0){
+                    continue;
+                }
+                int bx0 = ci == 0 ? Integer.MIN_VALUE / 2 : ci * cellSize - 1;
+                int bx1 = ci == columns - 1 ? Integer.MAX_VALUE / 2 : ci * cellSize + cellSize - 2;
+                int dx = Math.max(Math.max(x0 - bx1, bx0 - (x1 - 1)), 0);
+                if(Math.max(dx, dy) > radius(max(c), baselight)){
+                    continue;
+                }
+                Entry[] cell = cells[c];
+                for (int k = 0; k < counts[c]; k++) {
+                    Entry e = cell[k];
+                    int r = radius(e.intensity, baselight);
+                    if(e.x - r < x1 && e.x + r >= x0 && e.y - r < y1 && e.y + r >= y0){
+                        if(n == found.length){
+                            found = Arrays.copyOf(found, n * 2);
+                        }
+                        found[n++] = e;
+                    }
+                }
+            }
+        }
+        Arrays.sort(found, 0, n, ORDER);
+        return n;
+    }
+
+    /**
+     * Half the side of the window a source can light, as in DungeonIlluminator.footprint
+     */
+    private static int radius(int intensity, int baselight){
+        return intensity <= baselight ? 1 : intensity - baselight + 1;
+    }
+
+    /**
+     * @param position x or y position, from -1 for the border of the grid
+     * @param limit number of bucket columns or rows
+     * @return bucket column or row, the first or the last one for positions out of the grid
+     */
+    private int cell(int position, int limit){
+        return Math.min(Math.max(position + 1, 0) / cellSize, limit - 1);
+    }
+
+    private void insert(Entry e){
+        LightSource ls = e.source;
+        e.x = ls.getX();
+        e.y = ls.getY();
+        e.intensity = ls.getIntensity();
+        int c = cell(e.y, rows) * columns + cell(e.x, columns);
+        if(cells[c] == null){
+            cells[c] = new Entry[4];
+        }else if(counts[c] == cells[c].length){
+            cells[c] = Arrays.copyOf(cells[c], counts[c] * 2);
+        }
+        e.cell = c;
+        e.slot = counts[c];
+        cells[c][counts[c]++] = e;
+        raise(c, e.intensity);
+        intensities.push(e.intensity);
+    }
+
+    private void delete(Entry e){
+        int c = e.cell;
+        Entry[] cell = cells[c];
+        Entry last = cell[--counts[c]];
+        cell[e.slot] = last;
+        last.slot = e.slot;
+        cell[counts[c]] = null;
+        lower(c);
+        forget(e.intensity);
+    }
+
+    /**
+     * Takes the intensity of a source out of the highest intensity of all of them
+     * @param intensity intensity the source was indexed with
+     */
+    private void forget(int intensity){
+        removed.push(intensity);
+    }
+
+    /**
+     * Builds the heap of intensities again once the ones removed but not at its top yet outnumber the sources, so the
+     * heaps don't grow while the brightest source stays. Called once every source is indexed with its current values.
+     */
+    private void compact(){
+        if(removed.size > entries.size() + 16){
+            intensities.clear();
+            removed.clear();
+            for (Entry e : entries.values()) {
+                intensities.push(e.intensity);
+            }
+        }
+    }
+
+    private void raise(int c, int intensity){
+        if(!stale[c] && intensity > maxIntensity[c]){
+            maxIntensity[c] = intensity;
+        }
+    }
+
+    //The highest intensity of a bucket is found again only when a query needs it
+    private void lower(int c){
+        stale[c] = true;
+    }
+
+    private int max(int c){
+        if(stale[c]){
+            int m = Integer.MIN_VALUE;
+            for (int k = 0; k < counts[c]; k++) {
+                m = Math.max(m, cells[c][k].intensity);
+            }
+            maxIntensity[c] = m;
+            stale[c] = false;
+        }
+        return maxIntensity[c];
+    }
+
+    private int maxAll(){
+        while(removed.size > 0 && intensities.peek() == removed.peek()){
+            intensities.pop();
+            removed.pop();
+        }
+        return intensities.size == 0 ? Integer.MIN_VALUE : intensities.peek();
+    }
+
+    /**
+     * Max-heap of ints
+     */
+    private static final class IntHeap {
+        private int[] values = new int[16];
+        int size;
+
+        void push(int v){
+            if(size == values.length){
+                values = Arrays.copyOf(values, size * 2);
+            }
+            int k = size++;
+            while(k > 0 && values[(k - 1) >>> 1] < v){
+                values[k] = values[(k - 1) >>> 1];
+                k = (k - 1) >>> 1;
+            }
+            values[k] = v;
+        }
+
+        int peek(){
+            return values[0];
+        }
+
+        void pop(){
+            int v = values[--size];
+            int k = 0;
+            while(true){
+                int child = 2 * k + 1;
+                if(child >= size){
+                    break;
+                }
+                if(child + 1 < size && values[child + 1] > values[child]){
+                    child++;
+                }
+                if(values[child] <= v){
+                    break;
+                }
+                values[k] = values[child];
+                k = child;
+            }
+            values[k] = v;
+        }
+
+        void clear(){
+            size = 0;
+        }
+    }
+}
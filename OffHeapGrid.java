@@ -0,0 +1,286 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Grid of integers stored outside the Java heap, with the same padded layout as DungeonGrid, for dungeons too big to
+ * keep in an int array: the number of tiles is only limited by the memory of the machine, and the garbage collector
+ * never has to go through them.
+ * Tiles are kept in direct buffers, or in a file mapped into memory, of up to 1GB each, every buffer holding whole rows,
+ * so a row can always be read or written with a single copy. Indexes in the grid are longs.
+ * Work is done on windows: DungeonGrids copied out of the grid with window and copied back with write, as
+ * DungeonWorld.generateInto does to generate a dungeon of any size chunk by chunk, and DungeonIlluminator does to light
+ * a viewport of it.
+ * Reading and writing different tiles from several threads at once is safe.
+ */
+public class OffHeapGrid implements AutoCloseable {
+    private static final long CHUNK_BYTES = 1L << 30;
+
+    private final int width, height, stride;
+    private final int rowsPerChunk;
+    private final ByteBuffer[] chunks;
+    private final IntBuffer[] ints;
+    private final FileChannel channel;
+    private volatile boolean closed;
+
+    private OffHeapGrid(int width, int height, FileChannel channel) throws IOException {
+        if(width < 1 || height < 1 || (long) (width + 2) * 4 > CHUNK_BYTES){
+            throw new IllegalArgumentException("Wrong grid size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.stride = width + 2;
+        this.channel = channel;
+        this.rowsPerChunk = (int) Math.min(CHUNK_BYTES / ((long) stride * 4), height + 2);
+        int count = (height + 2 + rowsPerChunk - 1) / rowsPerChunk;
+        this.chunks = new ByteBuffer[count];
+        this.ints = new IntBuffer[count];
+        for (int c = 0; c < count; c++) {
+            int rows = Math.min(rowsPerChunk, height + 2 - c * rowsPerChunk);
+            long bytes = (long) rows * stride * 4;
+            ByteBuffer b = channel == null ? ByteBuffer.allocateDirect((int) bytes)
+                    : channel.map(FileChannel.MapMode.READ_WRITE, (long) c * rowsPerChunk * stride * 4, bytes);
+            chunks[c] = b.order(ByteOrder.LITTLE_ENDIAN);
+            ints[c] = chunks[c].asIntBuffer();
+        }
+    }
+
+    /**
+     * Creates a grid full of 0s (walls) in memory outside the heap
+     * @param width horizontal size
+     * @param height vertical size
+     * @return the grid
+     */
+    public static OffHeapGrid allocate(int width, int height){
+        try {
+            return new OffHeapGrid(width, height, null);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates a grid backed by a file, mapped into memory. The file holds the tiles as they are in memory, little
+     * endian, border padding included, and is created full of 0s if it doesn't exist, so the same file can be mapped
+     * again later with the same size to get the grid back.
+     * @param path path of the file
+     * @param width horizontal size
+     * @param height vertical size
+     * @return the grid, to be closed to release the file
+     * @throws IOException if the file can't be opened or has a different size
+     */
+    public static OffHeapGrid map(Path path, int width, int height) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long bytes = (long) (width + 2) * (height + 2) * 4;
+            if(channel.size() != 0 && channel.size() != bytes){
+                throw new IOException("File of " + channel.size() + " bytes, a " + width + "x" + height + " grid takes " + bytes);
+            }
+            return new OffHeapGrid(width, height, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the position of a tile in the grid, as DungeonGrid.index does
+     * @param x x position, from -1 to width
+     * @param y y position, from -1 to height
+     * @return index of the tile
+     */
+    public long index(int x, int y){
+        return (long) (y + 1) * stride + x + 1;
+    }
+
+    public int get(int x, int y){
+        return get(index(x, y));
+    }
+
+    public void set(int x, int y, int value){
+        set(index(x, y), value);
+    }
+
+    /**
+     * @param index index of a tile, as returned by index
+     * @return value of the tile
+     */
+    public int get(long index){
+        int row = (int) (index / stride);
+        return ints[row / rowsPerChunk].get((int) (index - (long) (row - row % rowsPerChunk) * stride));
+    }
+
+    /**
+     * @param index index of a tile, as returned by index
+     * @param value new value of the tile
+     */
+    public void set(long index, int value){
+        int row = (int) (index / stride);
+        ints[row / rowsPerChunk].put((int) (index - (long) (row - row % rowsPerChunk) * stride), value);
+    }
+
+    /**
+     * Sets every tile of the grid, border padding included, to a value
+     * @param value value to fill with
+     */
+    public void fill(int value){
+        int[] row = new int[stride];
+        Arrays.fill(row, value);
+        for (int y = -1; y <= height; y++) {
+            writeRow(-1, y, row, 0, stride);
+        }
+    }
+
+    /**
+     * Copies tiles of a row into an array
+     * @param x x position of the first tile, from -1
+     * @param y y position of the row, from -1 to height
+     * @param dst array to copy into
+     * @param offset position in the array of the first tile
+     * @param length number of tiles, not going past the border of the row
+     */
+    public void readRow(int x, int y, int[] dst, int offset, int length){
+        IntBuffer b = ints[(y + 1) / rowsPerChunk].duplicate();
+        b.position(((y + 1) % rowsPerChunk) * stride + x + 1);
+        b.get(dst, offset, length);
+    }
+
+    /**
+     * Copies tiles of an array into a row
+     * @param x x position of the first tile, from -1
+     * @param y y position of the row, from -1 to height
+     * @param src array to copy from
+     * @param offset position in the array of the first tile
+     * @param length number of tiles, not going past the border of the row
+     */
+    public void writeRow(int x, int y, int[] src, int offset, int length){
+        IntBuffer b = ints[(y + 1) / rowsPerChunk].duplicate();
+        b.position(((y + 1) % rowsPerChunk) * stride + x + 1);
+        b.put(src, offset, length);
+    }
+
+    /**
+     * Copies a window of the grid into a DungeonGrid, to work on it with the methods taking one.
+     * The border of the window holds the tiles around it, and the tiles out of the grid and its border are 0s.
+     * @param x x position of the first tile of the window
+     * @param y y position of the first tile of the window
+     * @param w horizontal size of the window
+     * @param h vertical size of the window
+     * @return grid of the size of the window
+     */
+    public DungeonGrid window(int x, int y, int w, int h){
+        DungeonGrid g = new DungeonGrid(w, h);
+        int x0 = Math.max(x - 1, -1), x1 = Math.min(x + w + 1, width + 1);
+        if(x0 < x1){
+            int[] cells = g.getCells();
+            for (int j = Math.max(y - 1, -1); j < Math.min(y + h + 1, height + 1); j++) {
+                readRow(x0, j, cells, g.index(x0 - x, j - y), x1 - x0);
+            }
+        }
+        return g;
+    }
+
+    /**
+     * Copies the tiles of a DungeonGrid into the grid, leaving out its border and the tiles that fall out of the grid
+     * @param g grid to copy
+     * @param x x position where its first tile goes
+     * @param y y position where its first tile goes
+     */
+    public void write(DungeonGrid g, int x, int y){
+        int x0 = Math.max(x, 0), x1 = Math.min(x + g.getWidth(), width);
+        if(x0 >= x1){
+            return;
+        }
+        int[] cells = g.getCells();
+        for (int j = Math.max(y, 0); j < Math.min(y + g.getHeight(), height); j++) {
+            writeRow(x0, j, cells, g.index(x0 - x, j - y), x1 - x0);
+        }
+    }
+
+    /**
+     * Same as DungeonGrid.inBounds
+     * @param x x position
+     * @param y y position
+     * @return if the tile is within the usable boundaries of the grid
+     */
+    public boolean inBounds(int x, int y){
+        return (x>=1&&y>=1&&x<getLimitX()&&y<getLimitY());
+    }
+
+    /**
+     * @return first x position out of the usable boundaries of the grid
+     */
+    public int getLimitX(){
+        return width - 2 + width % 2;
+    }
+
+    /**
+     * @return first y position out of the usable boundaries of the grid
+     */
+    public int getLimitY(){
+        return height - 2 + height % 2;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return distance between the index of a tile and the one below it
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * @return number of tiles, border padding included
+     */
+    public long getSize(){
+        return (long) stride * (height + 2);
+    }
+
+    /**
+     * @return if the grid is backed by a file
+     */
+    public boolean isMapped(){
+        return channel != null;
+    }
+
+    /**
+     * Writes the changes made to a grid backed by a file to the storage device
+     */
+    public void force(){
+        if(channel != null){
+            for (ByteBuffer b : chunks) {
+                ((MappedByteBuffer) b).force();
+            }
+        }
+    }
+
+    /**
+     * Releases the grid. A grid backed by a file has its changes written and its file closed. The memory itself is
+     * released once the grid is no longer referenced, as Java 8 has no way to free a buffer at once.
+     * @throws IOException if the file can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed){
+            return;
+        }
+        closed = true;
+        if(channel != null){
+            force();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+import java.util.SplittableRandom;
+
+/**
+ * Connects the regions of a flood filled dungeon grid into a single one.
+ * Regions are merged through a disjoint-set forest, so every connector is looked at once
+ * instead of rescanning the whole grid each time the main region grows.
+ */
+public class RegionConnector {
+
+    /**
+     * Given a grid where every connected region already has its own number (see floodFill in DungeonGenerator),
+     * opens connectors at random until all regions are joined. Connectors between regions that are already joined are
+     * discarded, with a small chance of being opened anyway so the dungeon is not a perfect tree.
+     * @param g grid
+     * @return number of connectors opened
+     */
+    public static int connect(DungeonGrid g){
+        return connect(g, new SplittableRandom());
+    }
+
+    /**
+     * Same as connect, drawing the random decisions from the given generator
+     * @param g grid
+     * @param rng random generator
+     * @return number of connectors opened
+     */
+    public static int connect(DungeonGrid g, SplittableRandom rng){
+        GenerationBuffers b = GenerationBuffers.acquire();
+        try {
+            return connect(g, rng, b, null);
+        } finally {
+            GenerationBuffers.release(b);
+        }
+    }
+
+    /**
+     * Same as connect, keeping its working arrays in the given buffers and the connectors it opens in b.opened
+     * @param g grid
+     * @param rng random generator
+     * @param b buffers
+     * @param m metrics of the generation, can be null
+     * @return number of connectors opened
+     */
+    static int connect(DungeonGrid g, SplittableRandom rng, GenerationBuffers b, GenerationMetrics m){
+        Cursor c = new Cursor();
+        connect(g, rng, b, c, Long.MAX_VALUE);
+        c.report(m);
+        return c.opened;
+    }
+
+    /**
+     * Where connect is in a grid, so the regions can be connected a part at a time with the other connect.
+     * The connectors and the disjoint-set forest are kept in the buffers.
+     */
+    static final class Cursor {
+        static final int HIGHEST = 0, COLLECT = 1, SHUFFLE = 2, OPEN = 3, DONE = 4;
+
+        int stage;
+        //Next tile, row or connector of the stage
+        int position;
+        int maxRegion, count, opened, extra;
+
+        /**
+         * Adds the counters of the connections to the metrics
+         * @param m metrics, can be null
+         */
+        void report(GenerationMetrics m){
+            if(m != null){
+                m.connectors += count;
+                m.connectorsOpened += opened;
+                m.extraConnectors += extra;
+                m.add(GenerationPhase.CONNECT_REGIONS, 0, opened);
+            }
+        }
+    }
+
+    /**
+     * Connects the regions from where a cursor was left, for about a number of tiles and connectors. Connecting them
+     * in many calls, with the same random generator and buffers, opens the same connectors as connecting them in one.
+     * @param g grid
+     * @param rng random generator
+     * @param b buffers, holding the connectors and the disjoint-set forest between calls
+     * @param c cursor, moved forward
+     * @param steps number of tiles and connectors to look at
+     * @return true once all regions are joined
+     */
+    static boolean connect(DungeonGrid g, SplittableRandom rng, GenerationBuffers b, Cursor c, long steps){
+        int[] t = g.getCells();
+        int stride = g.getStride(), limitx = g.getLimitX(), limity = g.getLimitY();
+
+        if(c.stage == Cursor.HIGHEST){
+            //Find the highest region number so it can be used as an index
+            int end = c.position + (int) Math.min(t.length - c.position, Math.max(steps, 0));
+            int maxRegion = c.maxRegion;
+            for (int idx = c.position; idx < end; idx++) {
+                if(t[idx] > maxRegion){
+                    maxRegion = t[idx];
+                }
+            }
+            c.maxRegion = maxRegion;
+            steps -= end - c.position;
+            c.position = end;
+            if(end < t.length){
+                return false;
+            }
+            c.stage = Cursor.COLLECT;
+            c.position = 1;
+        }
+
+        if(c.stage == Cursor.COLLECT){
+            //Collect every connector in a single pass, as its index and the two regions it separates
+            int[] connectors = b.connectors();
+            int count = c.count;
+            int j = c.position;
+            for (; j < limity && steps > 0; j += 1) {
+                steps -= limitx;
+                //Connectors are in a odd position in at least one of the two coordinates
+                int step = j % 2 == 1 ? 1 : 2;
+                for (int i = 1; i < limitx; i += step) {
+                    int idx = g.index(i, j);
+                    int a = connectorRegion(t, stride, idx);
+                    if(a > 0){
+                        if(count*3 == connectors.length){
+                            int[] aux = new int[connectors.length*2];
+                            System.arraycopy(connectors, 0, aux, 0, connectors.length);
+                            connectors = aux;
+                        }
+                        connectors[count*3] = idx;
+                        connectors[count*3+1] = a;
+                        connectors[count*3+2] = otherRegion(t, stride, idx, a);
+                        count++;
+                    }
+                }
+            }
+            b.setConnectors(connectors);
+            c.count = count;
+            c.position = j;
+            if(j < limity){
+                return false;
+            }
+            c.stage = Cursor.SHUFFLE;
+            c.position = count - 1;
+        }
+
+        if(c.stage == Cursor.SHUFFLE){
+            //Shuffle them, so the spanning tree is picked at random
+            int[] connectors = b.connectors();
+            int k = c.position;
+            for (; k > 0 && steps > 0; k--, steps--) {
+                int choice = rng.nextInt(k + 1);
+                for (int l = 0; l < 3; l++) {
+                    int aux = connectors[k*3+l];
+                    connectors[k*3+l] = connectors[choice*3+l];
+                    connectors[choice*3+l] = aux;
+                }
+            }
+            c.position = k;
+            if(k > 0){
+                return false;
+            }
+
+            int[] parent = b.parent(c.maxRegion + 1);
+            int[] rank = b.rank(c.maxRegion + 1);
+            for (int r = 0; r <= c.maxRegion; r++) {
+                parent[r] = r;
+                rank[r] = 0;
+            }
+            steps -= c.maxRegion;
+            b.opened.clear();
+            c.stage = Cursor.OPEN;
+            c.position = 0;
+        }
+
+        if(c.stage == Cursor.OPEN){
+            //Kruskal: open every connector that joins two different sets
+            int[] connectors = b.connectors();
+            int[] parent = b.parent(c.maxRegion + 1);
+            int[] rank = b.rank(c.maxRegion + 1);
+            IntStack openedTiles = b.opened;
+            int k = c.position;
+            for (; k < c.count && steps > 0; k++, steps--) {
+                int idx = connectors[k*3];
+                int ra = find(parent, connectors[k*3+1]);
+                int rb = find(parent, connectors[k*3+2]);
+                if(ra != rb){
+                    if(rank[ra] < rank[rb]){
+                        parent[ra] = rb;
+                    }else if(rank[ra] > rank[rb]){
+                        parent[rb] = ra;
+                    }else{
+                        parent[rb] = ra;
+                        rank[ra]++;
+                    }
+                    t[idx] = connectors[k*3+1];
+                    openedTiles.push(idx);
+                    c.opened++;
+                }else if(rng.nextDouble()*1000 > 999){
+                    t[idx] = connectors[k*3+1];
+                    openedTiles.push(idx);
+                    c.opened++;
+                    c.extra++;
+                }
+            }
+            c.position = k;
+            if(k < c.count){
+                return false;
+            }
+            c.stage = Cursor.DONE;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the representative of the set a region belongs to, halving the path on the way
+     * @param parent disjoint-set forest
+     * @param region region number
+     * @return representative region number
+     */
+    private static int find(int[] parent, int region){
+        while(parent[region] != region){
+            parent[region] = parent[parent[region]];
+            region = parent[region];
+        }
+        return region;
+    }
+
+    /**
+     * Given a tile of the grid, checks if it is a wall that is separating two different regions.
+     * The caller makes sure the tile is within the usable boundaries and in a odd position in at least one of the two coordinates
+     * @param t cells of the grid
+     * @param stride stride of the grid
+     * @param idx index of the tile
+     * @return number of one of the regions it separates, 0 if the tile is not a connector
+     */
+    private static int connectorRegion(int[] t, int stride, int idx){
+        if(t[idx] != 0){
+            return 0;
+        }
+        int first = 0, second = 0, outs = 0;
+        for (int k = 0; k < 4; k++) {
+            int v;
+            switch (k) {
+                case 0: v = t[idx + 1]; break;
+                case 1: v = t[idx - 1]; break;
+                case 2: v = t[idx + stride]; break;
+                default: v = t[idx - stride]; break;
+            }
+            if(v > 0){
+                outs++;
+                if(first == 0){
+                    first = v;
+                }else{
+                    second = v;
+                }
+            }
+        }
+        if(outs == 2 && first != second){
+            return first;
+        }
+        return 0;
+    }
+
+    /**
+     * Given a connector and one of the regions it separates, returns the other one
+     * @param t cells of the grid
+     * @param stride stride of the grid
+     * @param idx index of the connector
+     * @param region known region
+     * @return the other region
+     */
+    private static int otherRegion(int[] t, int stride, int idx, int region){
+        if(t[idx + 1] > 0 && t[idx + 1] != region){
+            return t[idx + 1];
+        }
+        if(t[idx - 1] > 0 && t[idx - 1] != region){
+            return t[idx - 1];
+        }
+        if(t[idx + stride] > 0 && t[idx + stride] != region){
+            return t[idx + stride];
+        }
+        return t[idx - stride];
+    }
+}
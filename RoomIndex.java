@@ -0,0 +1,98 @@
+import java.util.Arrays;
+
+/**
+ * Rectangles of the rooms placed so far, kept in a grid of buckets so checking if a new room overlaps any of them
+ * only looks at the few rooms around it instead of at every tile it would cover.
+ * Buckets are as big as the biggest room, so a room can only overlap rooms whose top left corner is in one of the
+ * 3x3 buckets around its own.
+ */
+class RoomIndex {
+    private int cell, columns, rows;
+    private int[] heads = new int[0];
+    private int[] next = new int[16];
+    private int[] rects = new int[64];
+    private int count;
+
+    /**
+     * Empties the index and sizes it for a grid
+     * @param width horizontal size of the grid
+     * @param height vertical size of the grid
+     * @param biggest biggest room width or height that will be added
+     */
+    void reset(int width, int height, int biggest){
+        cell = Math.max(biggest, 1);
+        columns = width / cell + 1;
+        rows = height / cell + 1;
+        if(heads.length < columns * rows){
+            heads = new int[columns * rows];
+        }
+        Arrays.fill(heads, 0, columns * rows, -1);
+        count = 0;
+    }
+
+    /**
+     * @param x first x position of the room
+     * @param y first y position of the room
+     * @param w width of the room, not bigger than the one given to reset
+     * @param h height of the room, not bigger than the one given to reset
+     * @return if the room shares any tile with a room already added
+     */
+    boolean overlaps(int x, int y, int w, int h){
+        int bx0 = Math.max(x / cell - 1, 0), by0 = Math.max(y / cell - 1, 0);
+        int bx1 = Math.min((x + w - 1) / cell, columns - 1), by1 = Math.min((y + h - 1) / cell, rows - 1);
+        for (int by = by0; by <= by1; by++) {
+            for (int bx = bx0; bx <= bx1; bx++) {
+                for (int r = heads[by * columns + bx]; r >= 0; r = next[r]) {
+                    int rx = rects[r*4], ry = rects[r*4+1];
+                    if(rx < x + w && x < rx + rects[r*4+2] && ry < y + h && y < ry + rects[r*4+3]){
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a room, which must fit in the grid given to reset
+     * @param x first x position of the room
+     * @param y first y position of the room
+     * @param w width of the room
+     * @param h height of the room
+     */
+    void add(int x, int y, int w, int h){
+        if(count == next.length){
+            next = Arrays.copyOf(next, count * 2);
+            rects = Arrays.copyOf(rects, count * 8);
+        }
+        int b = (y / cell) * columns + x / cell;
+        rects[count*4] = x;
+        rects[count*4+1] = y;
+        rects[count*4+2] = w;
+        rects[count*4+3] = h;
+        next[count] = heads[b];
+        heads[b] = count;
+        count++;
+    }
+
+    /**
+     * @return number of rooms added since the last reset
+     */
+    int count(){
+        return count;
+    }
+
+    /**
+     * @return rooms added since the last reset, as x, y, width and height, in the order they were added
+     */
+    int[] rects(){
+        return rects;
+    }
+
+    /**
+     * @return memory taken by the arrays of the index, in bytes
+     */
+    long bytes(){
+        return 4L * (heads.length + next.length + rects.length);
+    }
+}
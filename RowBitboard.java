@@ -0,0 +1,175 @@
+import java.util.Arrays;
+
+/**
+ * Non-wall tiles of a grid packed one bit per tile in rows of 64-bit words, in the same padded layout as DungeonGrid.
+ * Lets the cellular passes of DungeonGenerator count the neighbours of 64 tiles at once with shifts and masks:
+ * every pass computes the whole new grid from the old one, as the passes over the int grid did with a copy of it.
+ * Only tiles within the usable boundaries of the grid are changed.
+ * Every operation works on a range of rows, so a phase can be run a few rows at a time.
+ */
+class RowBitboard {
+    static final int TRIM = 0, EXPAND = 1, ERASE_COLUMNS = 2;
+
+    private int stride, words, rows, firstRow, lastRow;
+    private long[] bits = new long[0], previous = new long[0], loaded = new long[0];
+    private long[] interior = new long[0];
+
+    /**
+     * Gets ready to pack the non-wall tiles of a grid, with load
+     * @param g grid
+     */
+    void begin(DungeonGrid g){
+        stride = g.getStride();
+        words = (stride + 63) >>> 6;
+        rows = g.getHeight() + 2;
+        int length = rows * words;
+        if(bits.length < length){
+            bits = new long[length];
+            previous = new long[length];
+            loaded = new long[length];
+        }
+        if(interior.length < words){
+            interior = new long[words];
+        }
+
+        //Usable boundaries: x from 1 to limitX - 1 and y from 1 to limitY - 1, one more in padded coordinates
+        firstRow = 2;
+        lastRow = g.getLimitY();
+        Arrays.fill(interior, 0, words, 0);
+        for (int c = 2; c <= g.getLimitX(); c++) {
+            interior[c >>> 6] |= 1L << c;
+        }
+    }
+
+    /**
+     * Packs the non-wall tiles of some rows of the grid given to begin
+     * @param g grid
+     * @param from first row, in padded coordinates
+     * @param to last row plus one
+     */
+    void load(DungeonGrid g, int from, int to){
+        int[] t = g.getCells();
+        for (int r = from; r < to; r++) {
+            int base = r * stride;
+            for (int w = 0; w < words; w++) {
+                long word = 0;
+                int end = Math.min(64, stride - (w << 6));
+                for (int k = 0; k < end; k++) {
+                    if(t[base + (w << 6) + k] > 0){
+                        word |= 1L << k;
+                    }
+                }
+                bits[r * words + w] = word;
+            }
+        }
+        int length = (to - from) * words;
+        System.arraycopy(bits, from * words, previous, from * words, length);
+        System.arraycopy(bits, from * words, loaded, from * words, length);
+    }
+
+    /**
+     * @return number of rows of the grid, padding included
+     */
+    int rows(){
+        return rows;
+    }
+
+    /**
+     * Runs one pass of a rule over some rows at once, finished with endPass once every row went through it:
+     * TRIM turns into walls the tiles with exactly one non-wall neighbour,
+     * EXPAND opens the walls with three non-wall neighbours or more,
+     * ERASE_COLUMNS opens the walls with four non-wall neighbours.
+     * @param rule TRIM, EXPAND or ERASE_COLUMNS
+     * @param from first row, in padded coordinates
+     * @param to last row plus one
+     * @return number of tiles changed
+     */
+    int pass(int rule, int from, int to){
+        long[] cur = bits, nxt = previous;
+        int changed = 0;
+        int last = Math.min(to - 1, lastRow);
+        for (int r = Math.max(from, firstRow); r <= last; r++) {
+            int base = r * words;
+            long carry = 0;
+            for (int w = 0; w < words; w++) {
+                long c = cur[base + w], u = cur[base - words + w], d = cur[base + words + w];
+
+                //Neighbours to the left and to the right, moved over the tile, crossing into the next words
+                long left = (c << 1) | carry;
+                long right = (c >>> 1) | (w + 1 < words ? cur[base + w + 1] << 63 : 0);
+                carry = c >>> 63;
+
+                //Count the four neighbours in parallel: two half adders give each pair's sum and carry
+                long s1 = u ^ d, c1 = u & d, s2 = left ^ right, c2 = left & right;
+                long mask = interior[w];
+                long n;
+                switch (rule) {
+                    case TRIM: n = c & ~((s1 ^ s2) & ~(c1 | c2) & mask); break;
+                    case EXPAND: n = c | (((c1 & (s2 | c2)) | (c2 & s1)) & mask); break;
+                    default: n = c | (c1 & c2 & mask); break;
+                }
+                nxt[base + w] = n;
+                changed += Long.bitCount(n ^ c);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Makes the rows computed by the pass the current ones
+     */
+    void endPass(){
+        //Rows out of the boundaries never change, so they are already the same in both arrays
+        long[] cur = bits;
+        bits = previous;
+        previous = cur;
+    }
+
+    /**
+     * Pushes the index in the grid of every tile of some rows changed by the last pass
+     * @param out stack to push to
+     * @param from first row, in padded coordinates
+     * @param to last row plus one
+     */
+    void changes(IntStack out, int from, int to){
+        int last = Math.min(to - 1, lastRow);
+        for (int r = Math.max(from, firstRow); r <= last; r++) {
+            for (int w = 0; w < words; w++) {
+                long diff = bits[r * words + w] ^ previous[r * words + w];
+                while(diff != 0){
+                    out.push(r * stride + (w << 6) + Long.numberOfTrailingZeros(diff));
+                    diff &= diff - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes back into the grid the tiles of some rows changed since they were loaded, as 0s and 1s
+     * @param g grid loaded
+     * @param from first row, in padded coordinates
+     * @param to last row plus one
+     */
+    void store(DungeonGrid g, int from, int to){
+        int[] t = g.getCells();
+        int last = Math.min(to - 1, lastRow);
+        for (int r = Math.max(from, firstRow); r <= last; r++) {
+            for (int w = 0; w < words; w++) {
+                long now = bits[r * words + w];
+                long diff = now ^ loaded[r * words + w];
+                while(diff != 0){
+                    int k = Long.numberOfTrailingZeros(diff);
+                    t[r * stride + (w << 6) + k] = (int) (now >>> k) & 1;
+                    diff &= diff - 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return memory taken by the arrays of the bitboard, in bytes
+     */
+    long bytes(){
+        return 8L * (bits.length + previous.length + loaded.length + interior.length);
+    }
+}
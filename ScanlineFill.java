@@ -0,0 +1,212 @@
+/**
+ * Iterative scanline flood fill over dungeon grids. Fills whole horizontal runs of tiles at once and keeps only
+ * the start of the pending runs in a primitive stack, so big open regions don't overflow the thread stack.
+ * Relies on the padding of DungeonGrid, which is always 0, to stop at the edges of the grid.
+ */
+public class ScanlineFill {
+
+    /**
+     * Given a position in the grid and a value, changes the value of all the non-wall tiles connected to
+     * its adjacent tiles to that value. Tiles that already have the value are not crossed, like in the recursive version.
+     * Used to make two connected regions into one
+     * @param g grid
+     * @param i x position
+     * @param j y position
+     * @param v region value to fill with
+     * @return number of tiles changed
+     */
+    public static int fill(DungeonGrid g, int i, int j, int v){
+        return fill(g, i, j, v, new IntStack(64));
+    }
+
+    /**
+     * Same as fill, reusing a work stack so it can be called many times without allocating
+     * @param g grid
+     * @param i x position
+     * @param j y position
+     * @param v region value to fill with
+     * @param stack work stack
+     * @return number of tiles changed
+     */
+    public static int fill(DungeonGrid g, int i, int j, int v, IntStack stack){
+        int[] t = g.getCells();
+        int stride = g.getStride(), idx = g.index(i, j);
+        int count = 0;
+        count += fillFrom(t, stride, idx + 1, v, stack);
+        count += fillFrom(t, stride, idx - 1, v, stack);
+        count += fillFrom(t, stride, idx + stride, v, stack);
+        count += fillFrom(t, stride, idx - stride, v, stack);
+        return count;
+    }
+
+    /**
+     * Gives every connected group of non-wall tiles of the grid its own number, from 1 to the number of groups.
+     * Every tile is painted only once.
+     * @param g grid
+     * @return number of groups found
+     */
+    public static int labelAll(DungeonGrid g){
+        return labelAll(g, new IntStack(64));
+    }
+
+    /**
+     * Same as labelAll, reusing a work stack
+     * @param g grid
+     * @param stack work stack
+     * @return number of groups found
+     */
+    public static int labelAll(DungeonGrid g, IntStack stack){
+        LabelCursor c = new LabelCursor();
+        labelAll(g, c, stack, Long.MAX_VALUE);
+        return c.label;
+    }
+
+    /**
+     * Where labelAll is in a grid, so the groups can be labelled a part at a time with the other labelAll.
+     * The runs of the group being labelled are kept in the work stack.
+     */
+    static final class LabelCursor {
+        //Next tile to look at, in the sweep labelling the groups and then in the one making the labels positive
+        int idx;
+        boolean restoring;
+        //Groups found and tiles labelled
+        int label, tiles;
+
+        /**
+         * Adds the counters of the labelling to the metrics of a generation
+         * @param m metrics, can be null
+         */
+        void report(GenerationMetrics m){
+            if(m != null){
+                //Every non-wall tile is labelled once
+                m.regions += label;
+                m.add(GenerationPhase.FLOOD_FILL, 0, tiles);
+            }
+        }
+    }
+
+    /**
+     * Labels the groups from where a cursor was left, for about a number of tiles. Labelling in many calls, with the
+     * same work stack, gives the same labels as labelling in one.
+     * @param g grid
+     * @param c cursor, moved forward
+     * @param stack work stack, holding the runs of the group being labelled between calls
+     * @param steps number of tiles to look at
+     * @return true once every group is labelled
+     */
+    static boolean labelAll(DungeonGrid g, LabelCursor c, IntStack stack, long steps){
+        int[] t = g.getCells();
+        int stride = g.getStride();
+
+        //Labels are written as negative numbers, so they can't be confused with the old ones while sweeping
+        while(!c.restoring){
+            while(!stack.isEmpty()){
+                if(steps <= 0){
+                    return false;
+                }
+                int count = fillRun(t, stride, -c.label, stack);
+                c.tiles += count;
+                steps -= count + 1;
+            }
+            if(c.idx == t.length){
+                c.restoring = true;
+                c.idx = 0;
+                break;
+            }
+            if(steps <= 0){
+                return false;
+            }
+            int end = c.idx + (int) Math.min(t.length - c.idx, steps);
+            int idx = c.idx;
+            while(idx < end && t[idx] <= 0){
+                idx++;
+            }
+            steps -= idx - c.idx;
+            if(idx < end){
+                c.label++;
+                stack.push(idx);
+                idx++;
+            }
+            c.idx = idx;
+        }
+        int end = c.idx + (int) Math.min(t.length - c.idx, Math.max(steps, 0));
+        for (int idx = c.idx; idx < end; idx++) {
+            if(t[idx] < 0){
+                t[idx] = -t[idx];
+            }
+        }
+        c.idx = end;
+        return end == t.length;
+    }
+
+    /**
+     * Fills the non-wall tiles connected to a position that don't have the value v yet with that value
+     * @param t cells of the grid
+     * @param stride stride of the grid
+     * @param idx index to start from
+     * @param v value to fill with
+     * @param stack work stack, left empty
+     * @return number of tiles changed
+     */
+    private static int fillFrom(int[] t, int stride, int idx, int v, IntStack stack){
+        if(!matches(t[idx], v)){
+            return 0;
+        }
+        int count = 0;
+        stack.push(idx);
+        while(!stack.isEmpty()){
+            count += fillRun(t, stride, v, stack);
+        }
+        return count;
+    }
+
+    /**
+     * Takes the start of a run from the stack, paints the run and queues the runs touching it
+     * @param t cells of the grid
+     * @param stride stride of the grid
+     * @param v value to fill with
+     * @param stack work stack, not empty
+     * @return number of tiles changed
+     */
+    private static int fillRun(int[] t, int stride, int v, IntStack stack){
+        int start = stack.pop();
+        if(!matches(t[start], v)){
+            return 0;
+        }
+
+        //Extend the run in both directions and paint it
+        int x1 = start, x2 = start;
+        while(matches(t[x1 - 1], v)){
+            x1--;
+        }
+        while(matches(t[x2 + 1], v)){
+            x2++;
+        }
+        for (int k = x1; k <= x2; k++) {
+            t[k] = v;
+        }
+
+        //Queue the start of every run touching it in the rows above and below
+        pushRuns(t, x1 - stride, x2 - stride, v, stack);
+        pushRuns(t, x1 + stride, x2 + stride, v, stack);
+        return x2 - x1 + 1;
+    }
+
+    private static void pushRuns(int[] t, int x1, int x2, int v, IntStack stack){
+        boolean inRun = false;
+        for (int k = x1; k <= x2; k++) {
+            if(matches(t[k], v)){
+                if(!inRun){
+                    stack.push(k);
+                    inRun = true;
+                }
+            }else{
+                inRun = false;
+            }
+        }
+    }
+
+    private static boolean matches(int value, int v){
+        return value > 0 && value != v;
+    }
+}
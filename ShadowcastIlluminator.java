@@ -0,0 +1,210 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lights a grid by line of sight instead of spreading the light like a flood: a tile is lit by a source only if it can
+ * be seen from it, so light doesn't bend around corners. Uses symmetric shadowcasting: each quarter around a source is
+ * scanned row by row, moving away from it, and the walls of a row narrow the slopes scanned in the rows after it.
+ * A tile is lit by a source exactly when the source would be lit by the tile.
+ * Light falls off one level per tile of distance, rounded from the euclidean distance, so sources light circles.
+ * Each tile holds the maximum between the base light and the light of every source reaching it, so the result doesn't
+ * depend on the order of the sources.
+ * Keeps its tables and buffers between calls, so one illuminator should be reused, and used by one thread at a time.
+ */
+public class ShadowcastIlluminator {
+    //Quarters around the source: rows move away from it along the y axis for the first two, along the x axis for the others
+    private static final int NORTH = 0, SOUTH = 1, EAST = 2, WEST = 3;
+
+    //Rows waiting to be scanned: depth, start slope and end slope as numerator and denominator
+    private int[] rows = new int[5 * 64];
+
+    //Distance from the source of every offset up to the biggest radius used, and its radius
+    private int[] distances = new int[1];
+    private int radius;
+
+    private int revealed;
+
+    /**
+     * Given a 2D matrix and an ArrayList of light sources, returns a 2D matrix representing the light level on every
+     * tile of the 2D matrix, as DungeonIlluminator.illuminate does, lighting only the tiles in sight of each source
+     * @param t 2D matrix, where 0s are walls and 1s are walkable tiles
+     * @param sources list of LightSources
+     * @param baselight Base level of light with no sources
+     * @return 2D matrix representing the light level on every tile of the original 2D matrix
+     */
+    public int[][] illuminate(int[][] t, List<? extends LightSource> sources, int baselight){
+        DungeonGrid g = DungeonGrid.fromArray(t);
+        DungeonGrid light = new DungeonGrid(g.getWidth(), g.getHeight());
+        illuminate(g, sources, baselight, light);
+        return light.toArray();
+    }
+
+    /**
+     * Lights a grid into a light grid that is reused between calls, allocating nothing once the tables are as big as
+     * the brightest source
+     * @param g grid, where 0s are walls and 1s are walkable tiles
+     * @param sources list of LightSources
+     * @param baselight Base level of light with no sources
+     * @param light light grid of the same size, overwritten with the light level on every tile of the grid
+     * @return number of tiles lit, counting once for every source reaching them
+     */
+    public int illuminate(DungeonGrid g, List<? extends LightSource> sources, int baselight, DungeonGrid light){
+        if(light.getWidth() != g.getWidth() || light.getHeight() != g.getHeight()){
+            throw new IllegalArgumentException("Light grid of a different size than the grid");
+        }
+        light.fillAll(baselight);
+        revealed = 0;
+        //By index, not to create an iterator every call
+        for (int k = 0; k < sources.size(); k++) {
+            LightSource ls = sources.get(k);
+            if(g.inBounds(ls.getX(), ls.getY())) {
+                cast(g, light, ls.getX(), ls.getY(), ls.getIntensity(), baselight);
+            }
+        }
+        return revealed;
+    }
+
+    /**
+     * Adds the light of one source to a light grid, keeping on every tile the maximum of its light and the new one
+     * @param g grid, where 0s are walls and 1s are walkable tiles
+     * @param light light grid of the same size
+     * @param x x position of the source, within the usable boundaries of the grid
+     * @param y y position of the source, within the usable boundaries of the grid
+     * @param intensity intensity of the source
+     * @param baselight Base level of light with no sources, tiles that would get less light than it are not scanned
+     */
+    public void cast(DungeonGrid g, DungeonGrid light, int x, int y, int intensity, int baselight){
+        int[] tlight = light.getCells();
+        int origin = g.index(x, y);
+        if(tlight[origin] < intensity){
+            tlight[origin] = intensity;
+        }
+        //Tiles at this distance or farther would get no more than the base light
+        int reach = intensity - baselight - 1;
+        if(reach <= 0){
+            return;
+        }
+        ensureRadius(reach);
+        for (int quarter = 0; quarter < 4; quarter++) {
+            scan(g, tlight, x, y, intensity, reach, quarter);
+        }
+    }
+
+    /**
+     * @return number of tiles lit by the last call to illuminate, counting once for every source reaching them
+     */
+    public int getRevealed() {
+        return revealed;
+    }
+
+    /**
+     * Scans one quarter around a source
+     * @param g grid
+     * @param tlight cells of the light grid
+     * @param ox x position of the source
+     * @param oy y position of the source
+     * @param intensity intensity of the source
+     * @param reach farthest distance lit
+     * @param quarter NORTH, SOUTH, EAST or WEST
+     */
+    private void scan(DungeonGrid g, int[] tlight, int ox, int oy, int intensity, int reach, int quarter){
+        int[] t = g.getCells();
+        int stride = g.getStride();
+        int side = radius + 1;
+        int[] dist = distances;
+
+        //Offsets in the grid of one step in depth and one step in column, and the columns within the padded grid
+        int depthStep, colStep, colMin, colMax, depthMax;
+        switch (quarter) {
+            case NORTH: depthStep = -stride; colStep = 1; colMin = -1 - ox; colMax = g.getWidth() - ox; depthMax = oy + 1; break;
+            case SOUTH: depthStep = stride; colStep = 1; colMin = -1 - ox; colMax = g.getWidth() - ox; depthMax = g.getHeight() - oy; break;
+            case EAST: depthStep = 1; colStep = stride; colMin = -1 - oy; colMax = g.getHeight() - oy; depthMax = g.getWidth() - ox; break;
+            default: depthStep = -1; colStep = stride; colMin = -1 - oy; colMax = g.getHeight() - oy; depthMax = ox + 1; break;
+        }
+        depthMax = Math.min(depthMax, reach);
+        int origin = g.index(ox, oy);
+
+        //First row: slopes from -1 to 1
+        int top = 0;
+        top = push(top, 1, -1, 1, 1, 1);
+        while(top > 0){
+            top -= 5;
+            int[] r = rows;
+            int depth = r[top], sn = r[top + 1], sd = r[top + 2], en = r[top + 3], ed = r[top + 4];
+
+            //Columns whose centers are within the slopes, rounding ties towards the inside of the row
+            int first = Math.floorDiv(2 * depth * sn + sd, 2 * sd);
+            int last = -Math.floorDiv(-(2 * depth * en - ed), 2 * ed);
+            first = Math.max(first, colMin);
+            last = Math.min(last, colMax);
+
+            int rowBase = origin + depth * depthStep;
+            int prev = -1;
+            for (int col = first; col <= last; col++) {
+                int idx = rowBase + col * colStep;
+                int wall = t[idx] == 1 ? 0 : 1;
+
+                //Walls are lit when any part of them is seen, floors only when their center is
+                if(wall == 1 || (col * sd >= depth * sn && col * ed <= depth * en)){
+                    int d = dist[depth * side + Math.abs(col)];
+                    if(d <= reach){
+                        int value = intensity - d;
+                        if(tlight[idx] < value){
+                            tlight[idx] = value;
+                        }
+                        revealed++;
+                    }
+                }
+                if(prev == 1 && wall == 0){
+                    //Left edge of this tile: the row starts again after the wall
+                    sn = 2 * col - 1;
+                    sd = 2 * depth;
+                }else if(prev == 0 && wall == 1 && depth < depthMax){
+                    //Left edge of the wall closes the part of the row scanned before it
+                    top = push(top, depth + 1, sn, sd, 2 * col - 1, 2 * depth);
+                }
+                prev = wall;
+            }
+            if(prev == 0 && depth < depthMax){
+                top = push(top, depth + 1, sn, sd, en, ed);
+            }
+        }
+    }
+
+    /**
+     * Pushes a row to scan, growing the stack if needed
+     * @return new top of the stack
+     */
+    private int push(int top, int depth, int sn, int sd, int en, int ed){
+        if(top + 5 > rows.length){
+            rows = Arrays.copyOf(rows, rows.length * 2);
+        }
+        rows[top] = depth;
+        rows[top + 1] = sn;
+        rows[top + 2] = sd;
+        rows[top + 3] = en;
+        rows[top + 4] = ed;
+        return top + 5;
+    }
+
+    /**
+     * Makes the table of distances big enough for a radius. Grows to at least double the radius it had, so it is
+     * computed again only a few times.
+     * @param reach radius needed
+     */
+    private void ensureRadius(int reach){
+        if(reach <= radius){
+            return;
+        }
+        int r = Math.max(reach, 2 * radius);
+        int side = r + 1;
+        int[] table = new int[side * side];
+        for (int dy = 0; dy <= r; dy++) {
+            for (int dx = 0; dx <= r; dx++) {
+                table[dy * side + dx] = (int) Math.round(Math.sqrt(dx * dx + dy * dy));
+            }
+        }
+        distances = table;
+        radius = r;
+    }
+}
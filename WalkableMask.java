@@ -0,0 +1,111 @@
+/**
+ * Finished dungeon packed into one bit per tile, set where the tile is walkable.
+ * Uses the same padded layout as DungeonGrid, so tiles have the same index in both and the neighbours of a tile
+ * can be tested without checking bounds.
+ */
+public class WalkableMask {
+    private final int width, height, stride;
+    private final long[] bits;
+
+    /**
+     * Packs a grid, marking as walkable the tiles with a value greater than 0
+     * @param g grid
+     */
+    public WalkableMask(DungeonGrid g) {
+        this(g.getWidth(), g.getHeight());
+        int[] t = g.getCells();
+        for (int idx = 0; idx < t.length; idx++) {
+            if(t[idx] > 0){
+                bits[idx >>> 6] |= 1L << idx;
+            }
+        }
+    }
+
+    /**
+     * Creates a mask where every tile is a wall
+     * @param width horizontal size
+     * @param height vertical size
+     */
+    public WalkableMask(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.stride = width + 2;
+        this.bits = new long[(stride * (height + 2) + 63) >>> 6];
+    }
+
+    public boolean isWalkable(int x, int y){
+        return isWalkableIndex(index(x, y));
+    }
+
+    public void setWalkable(int x, int y, boolean walkable){
+        int idx = index(x, y);
+        if(walkable){
+            bits[idx >>> 6] |= 1L << idx;
+        }else{
+            bits[idx >>> 6] &= ~(1L << idx);
+        }
+    }
+
+    /**
+     * @param index index of the tile, as given by index(x, y)
+     * @return if the tile is walkable
+     */
+    public boolean isWalkableIndex(int index){
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public int index(int x, int y){
+        return (y + 1) * stride + x + 1;
+    }
+
+    /**
+     * Unpacks the mask into a grid of 0s and 1s
+     * @return grid
+     */
+    public DungeonGrid toGrid(){
+        DungeonGrid g = new DungeonGrid(width, height);
+        int[] t = g.getCells();
+        for (int idx = 0; idx < t.length; idx++) {
+            if(isWalkableIndex(idx)){
+                t[idx] = 1;
+            }
+        }
+        return g;
+    }
+
+    /**
+     * Unpacks the mask into a 2D matrix of 0s and 1s, as returned by DungeonGenerator.generate
+     * @return 2D matrix, indexed [x][y]
+     */
+    public int[][] toArray(){
+        int[][] t = new int[width][height];
+        for (int i = 0; i < width; i += 1) {
+            for (int j = 0; j < height; j += 1) {
+                if(isWalkable(i, j)){
+                    t[i][j] = 1;
+                }
+            }
+        }
+        return t;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Array backing the mask, 64 tiles per long. Changes to it are changes to the mask.
+     * @return the array
+     */
+    public long[] getBits() {
+        return bits;
+    }
+}
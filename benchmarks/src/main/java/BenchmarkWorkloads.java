@@ -0,0 +1,217 @@
+import benchmarks.Workload;
+import benchmarks.Workloads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Workloads of the benchmarks module. In the default package, like the classes it measures, so it can run the phases
+ * of DungeonGenerator one by one.
+ */
+public class BenchmarkWorkloads implements Workloads {
+
+    /**
+     * Configuration used for every size: a room every 200 tiles, as dense as the example of the README
+     * @param size width and height of the dungeon
+     * @return the configuration
+     */
+    static DungeonParameters parameters(int size){
+        return new DungeonParameters(size, size, Math.max(size * size / 200, 1), 3, 9, 2, true, 1);
+    }
+
+    @Override
+    public Workload generation(final int size, final long seed) {
+        final DungeonParameters p = parameters(size);
+        return new Workload() {
+            @Override
+            public void reset() {
+            }
+
+            @Override
+            public int run() {
+                return DungeonGenerator.generateGrid(seed, p).getCells().length;
+            }
+        };
+    }
+
+    @Override
+    public Workload phase(String phase, int size, long seed) {
+        int index = -1;
+        for (int k = 0; k < PHASES.length; k++) {
+            if(PHASES[k].equals(phase)){
+                index = k;
+            }
+        }
+        if(index < 0){
+            throw new IllegalArgumentException("Unknown phase " + phase);
+        }
+        return new PhaseWorkload(index, parameters(size), seed);
+    }
+
+    @Override
+    public Workload illumination(String lighting, int size, int sources, int intensity, long seed) {
+        final DungeonGrid g = DungeonGenerator.generateGrid(seed, parameters(size));
+        SplittableRandom rng = new SplittableRandom(seed);
+        final List<LightSource> list = new ArrayList<LightSource>();
+        while(list.size() < sources){
+            int x = rng.nextInt(size), y = rng.nextInt(size);
+            if(g.get(x, y) == 1){
+                list.add(new LightSource(x, y, intensity));
+            }
+        }
+        if("sequential".equals(lighting)){
+            return new Workload() {
+                @Override
+                public void reset() {
+                }
+
+                @Override
+                public int run() {
+                    return DungeonIlluminator.illuminate(g, list, 0).get(1, 1);
+                }
+            };
+        }
+        if("parallel".equals(lighting)){
+            return new Workload() {
+                @Override
+                public void reset() {
+                }
+
+                @Override
+                public int run() {
+                    return DungeonIlluminator.illuminateParallel(g, list, 0).get(1, 1);
+                }
+            };
+        }
+        if("cached".equals(lighting)){
+            //Static scene: after the first run every patch comes from the cache
+            final FootprintCache cache = new FootprintCache(256L << 20);
+            cache.illuminate(g, list, 0);
+            return new Workload() {
+                @Override
+                public void reset() {
+                }
+
+                @Override
+                public int run() {
+                    return cache.illuminate(g, list, 0).get(1, 1);
+                }
+            };
+        }
+        if("shadowcast".equals(lighting)){
+            final ShadowcastIlluminator illuminator = new ShadowcastIlluminator();
+            final DungeonGrid light = new DungeonGrid(size, size);
+            return new Workload() {
+                @Override
+                public void reset() {
+                }
+
+                @Override
+                public int run() {
+                    illuminator.illuminate(g, list, 0, light);
+                    return light.get(1, 1);
+                }
+            };
+        }
+        if("colored".equals(lighting)){
+            //Same sources with a warm color, every channel spread in the same pass
+            final List<LightSource> colored = new ArrayList<LightSource>();
+            for (LightSource ls : list) {
+                colored.add(new ColoredLightSource(ls.getX(), ls.getY(), intensity, intensity / 2, intensity / 3));
+            }
+            final ColoredIlluminator illuminator = new ColoredIlluminator();
+            final DungeonGrid light = new DungeonGrid(size, size);
+            return new Workload() {
+                @Override
+                public void reset() {
+                }
+
+                @Override
+                public int run() {
+                    illuminator.illuminate(g, colored, 0, light);
+                    return light.get(1, 1);
+                }
+            };
+        }
+        if("viewport".equals(lighting)){
+            //Light of an 80x50 camera window, moving over the dungeon, with the sources found through an index
+            final LightSourceIndex index = new LightSourceIndex(g, list, 32);
+            return new Workload() {
+                private int frame;
+
+                @Override
+                public void reset() {
+                }
+
+                @Override
+                public int run() {
+                    int x = (frame * 37) % Math.max(size - 80, 1), y = (frame * 23) % Math.max(size - 50, 1);
+                    frame++;
+                    return DungeonIlluminator.illuminate(g, index, 0, x, y, 80, 50).get(1, 1);
+                }
+            };
+        }
+        throw new IllegalArgumentException("Unknown lighting " + lighting);
+    }
+
+    /**
+     * Runs one phase of the generation on a copy of the grid left by the phases before it
+     */
+    private static class PhaseWorkload implements Workload {
+        private final int phase;
+        private final DungeonParameters p;
+        private final long seed;
+        private final DungeonGrid g;
+        private final int[] before;
+        private final GenerationBuffers b = GenerationBuffers.acquire();
+        private int regions;
+        private SplittableRandom rng;
+
+        PhaseWorkload(int phase, DungeonParameters p, long seed) {
+            this.phase = phase;
+            this.p = p;
+            this.seed = seed;
+            this.g = new DungeonGrid(p.getXsize(), p.getYsize());
+            this.rng = new SplittableRandom(seed);
+            for (int k = 0; k < phase; k++) {
+                runPhase(k);
+            }
+            this.before = g.getCells().clone();
+        }
+
+        @Override
+        public void reset() {
+            System.arraycopy(before, 0, g.getCells(), 0, before.length);
+            rng = new SplittableRandom(seed);
+        }
+
+        @Override
+        public int run() {
+            runPhase(phase);
+            return g.get(1, 1);
+        }
+
+        /**
+         * Runs a phase as DungeonGenerator.generate does
+         * @param k index of the phase in PHASES
+         */
+        private void runPhase(int k){
+            switch (k) {
+                case 0: regions = DungeonGenerator.placeRooms(g, rng, p.getNumberOfRooms(), p.getMaxRoomSize(), p.getMinRoomSize(), p.getAttemptsPerRoom(), b.rooms, null); break;
+                case 1: DungeonGenerator.createMaze(g, rng, regions + 1, b.stack, null); break;
+                case 2: DungeonGenerator.floodFill(g, b.stack, null); break;
+                case 3:
+                    DungeonGenerator.connectRegions(g, rng, b, null);
+                    //Not a phase on its own, needed by the ones after it
+                    if(k < phase){
+                        DungeonGenerator.flatten(g);
+                    }
+                    break;
+                case 4: DungeonGenerator.trim(g, p.getTrim(), b, null); break;
+                case 5: DungeonGenerator.eraseColumns(g, p.isEraseColumns(), b.board, null); break;
+                default: DungeonGenerator.expand(g, p.getExpand(), b.board, null); break;
+            }
+        }
+    }
+}
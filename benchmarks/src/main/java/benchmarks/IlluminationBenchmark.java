@@ -0,0 +1,44 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocation of lighting a 1024x1024 dungeon, for different numbers of sources and intensities
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class IlluminationBenchmark {
+
+    @Param({"sequential", "parallel", "cached", "shadowcast", "colored", "viewport"})
+    public String lighting;
+
+    @Param({"1024"})
+    public int size;
+
+    @Param({"16", "256", "2048"})
+    public int sources;
+
+    @Param({"8", "32"})
+    public int intensity;
+
+    @Param({"42"})
+    public long seed;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        workload = Workloads.load().illumination(lighting, size, sources, intensity, seed);
+    }
+
+    @Benchmark
+    public int illuminate(){
+        return workload.run();
+    }
+}
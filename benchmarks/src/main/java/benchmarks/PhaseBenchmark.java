@@ -0,0 +1,44 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocation of every phase of the generation on its own, from 64x64 to 4096x4096.
+ * The grid left by the phases before it is restored before every invocation, outside of the measure.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class PhaseBenchmark {
+
+    @Param({"placeRooms", "createMaze", "floodFill", "connectRegions", "trim", "eraseColumns", "expand"})
+    public String phase;
+
+    @Param({"64", "256", "1024", "4096"})
+    public int size;
+
+    @Param({"42"})
+    public long seed;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        workload = Workloads.load().phase(phase, size, seed);
+    }
+
+    @Setup(Level.Invocation)
+    public void reset(){
+        workload.reset();
+    }
+
+    @Benchmark
+    public int run(){
+        return workload.run();
+    }
+}
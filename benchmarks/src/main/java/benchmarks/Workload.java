@@ -0,0 +1,18 @@
+package benchmarks;
+
+/**
+ * Piece of work measured by a benchmark, prepared once with fixed seeds so results can be compared between commits
+ */
+public interface Workload {
+
+    /**
+     * Puts the input of the work back as it was before the last run. Not measured.
+     */
+    void reset();
+
+    /**
+     * Does the measured work
+     * @return a value depending on the result, so the work can't be optimized away
+     */
+    int run();
+}
@@ -0,0 +1,55 @@
+package benchmarks;
+
+/**
+ * Creates the workloads of the benchmarks.
+ * The classes being measured are in the default package, which can't be imported from a named package and can't hold
+ * JMH benchmarks, so the implementation, BenchmarkWorkloads, lives in the default package and is loaded by name.
+ */
+public interface Workloads {
+
+    /**
+     * Phases of the generation, in the order DungeonGenerator runs them
+     */
+    String[] PHASES = {"placeRooms", "createMaze", "floodFill", "connectRegions", "trim", "eraseColumns", "expand"};
+
+    /**
+     * Ways of lighting a grid
+     */
+    String[] LIGHTING = {"sequential", "parallel", "cached", "shadowcast", "colored", "viewport"};
+
+    /**
+     * @param size width and height of the dungeon
+     * @param seed seed of the dungeon
+     * @return workload generating a whole dungeon
+     */
+    Workload generation(int size, long seed);
+
+    /**
+     * @param phase one of PHASES
+     * @param size width and height of the dungeon
+     * @param seed seed of the dungeon
+     * @return workload running a single phase, on the grid left by the phases before it
+     */
+    Workload phase(String phase, int size, long seed);
+
+    /**
+     * @param lighting one of LIGHTING
+     * @param size width and height of the dungeon
+     * @param sources number of light sources, placed on walkable tiles
+     * @param intensity intensity of every source
+     * @param seed seed of the dungeon and the positions of the sources
+     * @return workload lighting the whole dungeon
+     */
+    Workload illumination(String lighting, int size, int sources, int intensity, long seed);
+
+    /**
+     * @return the workloads of the classes in the default package
+     */
+    static Workloads load(){
+        try {
+            return (Workloads) Class.forName("BenchmarkWorkloads").newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchmarkWorkloads not found", e);
+        }
+    }
+}